@@ -35,6 +35,10 @@ import java.util.Set;
  */
 public class FakeReplaceClient {
 
+    private static final int RESULT_SUCCESS = 0;
+
+    private static final int RESULT_PROGRESS = 2;
+
     public static void run(final String deploymentName, Map<String, ClassData> classes, final Map<String, ResourceData> resources) throws IOException {
         final Socket socket = new Socket("localhost", 6555);
         try {
@@ -100,7 +104,13 @@ public class FakeReplaceClient {
             output.flush();
 
             int result = input.readInt();
-            if(result != 0) {
+            while (result == RESULT_PROGRESS) {
+                final int retransformed = input.readInt();
+                final int total = input.readInt();
+                System.out.println("Retransformed " + retransformed + " of " + total + " dependent classes");
+                result = input.readInt();
+            }
+            if(result != RESULT_SUCCESS) {
                 System.out.println("Replacement failed");
             }
 
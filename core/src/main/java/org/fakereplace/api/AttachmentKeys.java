@@ -20,6 +20,8 @@
 
 package org.fakereplace.api;
 
+import java.util.Set;
+
 /**
  * @author Stuart Douglas
  */
@@ -27,7 +29,20 @@ public class AttachmentKeys {
 
     public static final AttachmentKey<String> DEPLOYMENT_NAME = AttachmentKey.newInstance(String.class);
 
+    public static final AttachmentKey<RetransformProgressListener> RETRANSFORM_PROGRESS = AttachmentKey.newInstance(RetransformProgressListener.class);
+
+    /**
+     * The replaced classes and their loaded subclasses, as a <code>Set&lt;Class&lt;?&gt;&gt;</code>. Set before
+     * the class change listeners are notified, so caches keyed by class can evict just these classes.
+     */
+    public static final AttachmentKey<Set<Class<?>>> REPLACED_CLASS_HIERARCHY = AttachmentKey.newInstance(classSetType());
+
     private AttachmentKeys() {
 
     }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Set<Class<?>>> classSetType() {
+        return (Class) Set.class;
+    }
 }
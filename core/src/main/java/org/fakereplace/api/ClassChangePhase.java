@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.api;
+
+/**
+ * The phases that {@link ClassChangeAware#afterChange} notifications are run in. Phases are run in order, and
+ * the {@link PhasedClassChangeAware} listeners in a single phase are run in parallel. Listeners that do not
+ * declare a phase are run one at a time, in the order they were registered, at the start of the
+ * {@link #FRAMEWORK} phase.
+ * <p/>
+ * If the <code>deferred-notifications</code> agent option is set, deferrable phases are run in the background,
+ * so the client can be answered as soon as the other phases are complete.
+ */
+public enum ClassChangePhase {
+
+    /**
+     * Clearing of reflection and metadata caches
+     */
+    CACHES(false),
+    /**
+     * Updating framework metadata, such as proxies and components. This is the phase used by listeners that do
+     * not implement {@link PhasedClassChangeAware}
+     */
+    FRAMEWORK(false),
+    /**
+     * Rebuilding of heavyweight deployment level services, such as persistence units or JAX-RS dispatchers
+     */
+    DEPLOYMENT(true);
+
+    private final boolean deferrable;
+
+    private ClassChangePhase(final boolean deferrable) {
+        this.deferrable = deferrable;
+    }
+
+    public boolean isDeferrable() {
+        return deferrable;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.api;
+
+/**
+ * Listener that is notified as classes that reference changed classes are retransformed. This is
+ * attached to a replacement with {@link AttachmentKeys#RETRANSFORM_PROGRESS}.
+ */
+public interface RetransformProgressListener {
+
+    /**
+     * Called on the thread performing the replacement after each chunk of classes has been retransformed
+     *
+     * @param retransformed the number of classes that have been retransformed so far
+     * @param total         the total number of classes to retransform
+     */
+    void progress(int retransformed, int total);
+
+    /**
+     * Called on the thread performing the replacement if a chunk of classes could not be retransformed, before
+     * the failure is thrown. No more chunks are retransformed after a failure.
+     *
+     * @param retransformed the number of classes that were retransformed before the failed chunk
+     * @param total         the total number of classes to retransform
+     */
+    void failed(int retransformed, int total);
+}
@@ -19,6 +19,7 @@
  */
 package org.fakereplace.api.environment;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,7 +36,11 @@ public interface Environment {
 
     Set<String> getUpdatedResources(final String deploymentName, final Map<String, Long> updatedResources);
 
-    void updateResource(final String archiveName, Map<String, byte[]> replacedResources);
+    /**
+     * Updates the given resources in the archive. The new contents of each resource are held in a temporary file
+     * that is only valid for the duration of this call.
+     */
+    void updateResource(final String archiveName, Map<String, File> replacedResources);
 
     <T> T getService(Class<T> clazz);
 
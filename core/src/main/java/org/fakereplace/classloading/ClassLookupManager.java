@@ -20,7 +20,11 @@
 
 package org.fakereplace.classloading;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.fakereplace.core.Constants;
 import org.fakereplace.com.google.common.collect.MapMaker;
@@ -28,29 +32,100 @@ import org.fakereplace.transformation.MainTransformer;
 
 /**
  * this class is resposible for serving up classes to instrumented ClassLoaders
+ * <p/>
+ * Class bytes are keyed weakly by their ClassLoader, and are dropped as soon as the
+ * class has been defined, so added classes do not stay on the heap for the lifetime
+ * of the deployment.
+ * <p/>
+ * {@link #getClassData(String, Object)} runs at the start of every instrumented loadClass call, so it bails out
+ * as early as possible for loaders that have never been given anything to serve. Until the first class is
+ * registered the whole check is a single volatile read.
  *
  * @author stuart
  */
 public class ClassLookupManager {
-    private static Map<ClassIdentifier, byte[]> classData = new MapMaker().makeMap();
+
+    private static final ConcurrentMap<ClassLoader, Map<String, byte[]>> classData = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * loaders that may have added, proxy or integration classes to serve
+     */
+    private static final Set<ClassLoader> activeLoaders = Collections.newSetFromMap(new MapMaker().weakKeys().<ClassLoader, Boolean>makeMap());
+
+    /**
+     * set once the first loader is registered, and never cleared
+     */
+    private static volatile boolean active;
 
     public static byte[] getClassData(String className, Object cl) {
+        if (!active) {
+            return null;
+        }
         //if is possible for this to be called by an object that is not a CL
         //do nothing in this case
         if (!(cl instanceof ClassLoader)) {
             return null;
         }
         final ClassLoader loader = (ClassLoader) cl;
+        if (!activeLoaders.contains(loader)) {
+            return null;
+        }
         if (className.startsWith(Constants.GENERATED_CLASS_PACKAGE)) {
             return ProxyDefinitionStore.getProxyDefinition(loader, className);
         }
         if (className.startsWith("org.fakereplace.integration")) {
             return MainTransformer.getIntegrationClass(loader, className);
         }
-        return classData.get(new ClassIdentifier(className, loader));
+        final Map<String, byte[]> loaderData = classData.get(loader);
+        if (loaderData == null) {
+            return null;
+        }
+        return loaderData.get(className);
     }
 
     public static void addClassInfo(String className, ClassLoader loader, byte[] data) {
-        classData.put(new ClassIdentifier(className, loader), data);
+        if (loader == null) {
+            //the bootstrap loader is never instrumented, so the data could never be served
+            return;
+        }
+        registerLoader(loader);
+        Map<String, byte[]> loaderData = classData.get(loader);
+        if (loaderData == null) {
+            loaderData = new ConcurrentHashMap<String, byte[]>();
+            final Map<String, byte[]> existing = classData.putIfAbsent(loader, loaderData);
+            if (existing != null) {
+                loaderData = existing;
+            }
+        }
+        loaderData.put(className, data);
+    }
+
+    /**
+     * Registers a loader that has classes that will be served to it through {@link #getClassData(String, Object)}.
+     * This must be called before the class data is made available.
+     */
+    public static void registerLoader(ClassLoader loader) {
+        if (loader == null) {
+            return;
+        }
+        activeLoaders.add(loader);
+        active = true;
+    }
+
+    /**
+     * Called by instrumented loaders once a class they were served has been defined, or has been found through
+     * findLoadedClass. From then on the loader finds the class through findLoadedClass, so the bytes are no longer
+     * needed. If defineClass fails this is not called, and the bytes are kept so the load can be retried.
+     *
+     * @param className the binary (dot separated) class name
+     */
+    public static void classDefined(String className, Object cl) {
+        if (classData.isEmpty() || !(cl instanceof ClassLoader)) {
+            return;
+        }
+        final Map<String, byte[]> loaderData = classData.get(cl);
+        if (loaderData != null) {
+            loaderData.remove(className);
+        }
     }
 }
@@ -26,6 +26,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.fakereplace.core.Constants;
 import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.manip.util.MapFunction;
+import org.fakereplace.reflection.MethodInvokeBootstrap;
 
 /**
  * This class holds proxy definitions, that are later loaded by the relevant ClassLoaders
@@ -43,8 +44,10 @@ public class ProxyDefinitionStore {
     }
 
     public static void saveProxyDefinition(ClassLoader classLoader, String className, byte[] data) {
+        ClassLookupManager.registerLoader(classLoader);
         Map<String, byte[]> def = proxyDefinitions.get(classLoader);
         def.put(className, data);
+        MethodInvokeBootstrap.classGenerated();
     }
 
     /**
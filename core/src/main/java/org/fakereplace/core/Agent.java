@@ -38,11 +38,14 @@ import java.util.ServiceLoader;
 import java.util.Set;
 
 import javassist.bytecode.ClassFile;
+import org.fakereplace.api.AttachmentKeys;
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.Extension;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.classloading.ClassLookupManager;
 import org.fakereplace.data.ClassDataStore;
+import org.fakereplace.logging.Logger;
+import org.fakereplace.manip.util.ManipulationDataStore;
 import org.fakereplace.replacement.AddedClass;
 import org.fakereplace.replacement.ClassRedefiner;
 import org.fakereplace.replacement.ReplacementResult;
@@ -61,6 +64,8 @@ public class Agent {
 
     private static final Class[] EMPTY_CL_ARRAY = new Class[0];
 
+    private static final Logger log = Logger.getLogger(Agent.class);
+
     private static volatile Instrumentation inst;
 
     private static volatile MainTransformer mainTransformer;
@@ -110,6 +115,7 @@ public class Agent {
     }
 
     public static void redefine(ClassDefinition[] classes, AddedClass[] addedData, final Attachments attachments) throws UnmodifiableClassException, ClassNotFoundException {
+        final long start = System.currentTimeMillis();
         try {
             final List<ClassIdentifier> addedClass = new ArrayList<ClassIdentifier>();
             for (AddedClass i : addedData) {
@@ -118,7 +124,7 @@ public class Agent {
 
             final List<Class<?>> changedClasses = new ArrayList<Class<?>>();
             for (ClassDefinition i : classes) {
-                System.out.println("Fakereplace is replacing class " + i.getDefinitionClass());
+                log.info("Fakereplace is replacing class " + i.getDefinitionClass());
                 changedClasses.add(i.getDefinitionClass());
                 ClassDataStore.instance().markClassReplaced(i.getClass());
             }
@@ -131,13 +137,19 @@ public class Agent {
                 ClassLookupManager.addClassInfo(c.getClassName(), c.getLoader(), c.getData());
             }
             inst.redefineClasses(result.getClasses());
-            if (!result.getClassesToRetransform().isEmpty()) {
-                inst.retransformClasses(result.getClassesToRetransform().toArray(new Class[result.getClassesToRetransform().size()]));
+            ChunkedRetransformer.retransform(inst, result.getClassesToRetransform(), attachments.get(AttachmentKeys.RETRANSFORM_PROGRESS));
+            final Set<Class<?>> hierarchy = replacedClassHierarchy(changedClasses);
+            for (Class<?> c : hierarchy) {
+                Introspector.flushFromCaches(c);
             }
-            Introspector.flushCaches();
+            attachments.set(AttachmentKeys.REPLACED_CLASS_HIERARCHY, Collections.unmodifiableSet(hierarchy));
 
             ClassChangeNotifier.instance().afterChange(Collections.unmodifiableList(CurrentChangedClasses.getChanged()), Collections.unmodifiableList(addedClass), attachments);
+            log.event("replace", "result", "success", "replaced", classes.length, "added", addedData.length,
+                    "retransformed", result.getClassesToRetransform().size(), "timeMs", System.currentTimeMillis() - start);
         } catch (Throwable e) {
+            log.event("replace", "result", "failure", "replaced", classes.length, "added", addedData.length,
+                    "error", e.getClass().getName(), "timeMs", System.currentTimeMillis() - start);
             try {
                 // dump the classes to /tmp so we can look at them
                 for (ClassDefinition d : classes) {
@@ -167,6 +179,46 @@ public class Agent {
         }
     }
 
+    /**
+     * Returns the changed classes, and their loaded subclasses. Only the loaders that can see the loader of a changed
+     * class are searched, rather than every loaded class.
+     */
+    private static Set<Class<?>> replacedClassHierarchy(final List<Class<?>> changedClasses) {
+        final Set<Class<?>> ret = new HashSet<Class<?>>(changedClasses);
+        final Set<ClassLoader> loaders = new HashSet<ClassLoader>();
+        for (Class<?> c : changedClasses) {
+            if (c.getClassLoader() != null) {
+                loaders.add(c.getClassLoader());
+            }
+        }
+        for (ClassLoader loader : ClassDataStore.instance().getClassLoaders()) {
+            if (!canSee(loader, loaders)) {
+                continue;
+            }
+            for (Class<?> loaded : inst.getInitiatedClasses(loader)) {
+                if (loaded.isInterface() || loaded.isArray() || ret.contains(loaded)) {
+                    continue;
+                }
+                for (Class<?> c : changedClasses) {
+                    if (c != loaded && c.isAssignableFrom(loaded)) {
+                        ret.add(loaded);
+                        break;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static boolean canSee(final ClassLoader loader, final Set<ClassLoader> changedLoaders) {
+        for (ClassLoader changedLoader : changedLoaders) {
+            if (ManipulationDataStore.includeClassLoader(loader, changedLoader)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static Instrumentation getInstrumentation() {
         return inst;
     }
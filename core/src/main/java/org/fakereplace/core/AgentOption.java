@@ -31,6 +31,9 @@ public enum AgentOption {
     PACKAGES("packages"),
     LOG("log"),
     PORT("port", "6555"),
+    DEFERRED_NOTIFICATIONS("deferred-notifications"),
+    RETRANSFORM_PAUSE("retransform-pause", "100"),
+    SPECIALISED_DELEGATORS("specialised-delegators"),
     ;
 
     private final String key;
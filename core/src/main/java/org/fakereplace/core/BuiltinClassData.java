@@ -20,24 +20,18 @@
 
 package org.fakereplace.core;
 
+import org.fakereplace.util.PrefixTrie;
+
 public class BuiltinClassData {
 
-    private static final String[] doNotInstrument = {"org/fakereplace", "java/math", "java/lang", "java/util/concurrent", "java/util/Currency", "java/util/Random", "java/util",};
+    private static final PrefixTrie doNotInstrument = PrefixTrie.ofClassNames("org/fakereplace", "java/math", "java/lang", "java/util/concurrent", "java/util/Currency", "java/util/Random", "java/util");
 
-    private static final String[] exceptions = {"java/lang/reflect/Proxy",};
+    private static final PrefixTrie exceptions = PrefixTrie.ofClassNames("java/lang/reflect/Proxy");
 
     public static boolean skipInstrumentation(String className) {
-        className = className.replace('.', '/');
-        for (String s : exceptions) {
-            if (className.startsWith(s)) {
-                return false;
-            }
-        }
-        for (String s : doNotInstrument) {
-            if (className.startsWith(s)) {
-                return true;
-            }
+        if (exceptions.matchesPrefix(className)) {
+            return false;
         }
-        return false;
+        return doNotInstrument.matchesPrefix(className);
     }
 }
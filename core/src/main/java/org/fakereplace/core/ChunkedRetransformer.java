@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.core;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.fakereplace.api.RetransformProgressListener;
+import org.fakereplace.logging.Logger;
+
+/**
+ * Retransforms a large number of classes in chunks, so that no single retransformation holds the VM
+ * at a safepoint for too long.
+ * <p/>
+ * Chunks are retransformed one after another on the calling thread, and the chunk size is adjusted after
+ * every chunk so the time taken stays close to the <code>retransform-pause</code> agent option (in milliseconds).
+ */
+public class ChunkedRetransformer {
+
+    private static final Logger log = Logger.getLogger(ChunkedRetransformer.class);
+
+    private static final int INITIAL_CHUNK_SIZE = 64;
+
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private static final int MAX_CHUNK_SIZE = 4096;
+
+    private static final Class<?>[] EMPTY_CL_ARRAY = new Class<?>[0];
+
+    private ChunkedRetransformer() {
+
+    }
+
+    public static void retransform(final Instrumentation inst, final Collection<Class<?>> classes, final RetransformProgressListener listener) throws UnmodifiableClassException {
+        final int total = classes.size();
+        if (total == 0) {
+            return;
+        }
+        final Class<?>[] all = classes.toArray(EMPTY_CL_ARRAY);
+        final long targetPause = Long.parseLong(AgentOptions.getOption(AgentOption.RETRANSFORM_PAUSE));
+        int chunkSize = INITIAL_CHUNK_SIZE;
+        int position = 0;
+        while (position < total) {
+            final int size = Math.min(chunkSize, total - position);
+            final Class<?>[] chunk = size == total ? all : Arrays.copyOfRange(all, position, position + size);
+            final long start = System.currentTimeMillis();
+            boolean ok = false;
+            try {
+                inst.retransformClasses(chunk);
+                ok = true;
+            } finally {
+                if (!ok && listener != null) {
+                    listener.failed(position, total);
+                }
+            }
+            final long time = System.currentTimeMillis() - start;
+            position += size;
+            chunkSize = adjustChunkSize(size, time, targetPause);
+            if (log.isDebugEnabled()) {
+                log.debug("Retransformed " + size + " classes in " + time + "ms, next chunk size is " + chunkSize);
+            }
+            if (listener != null) {
+                listener.progress(position, total);
+            }
+        }
+    }
+
+    /**
+     * scales the chunk size by how far the last chunk was from the target time, growing by at most
+     * a factor of two at a time
+     */
+    static int adjustChunkSize(final int lastSize, final long time, final long targetPause) {
+        final long scaled = time <= 0 ? lastSize * 2L : lastSize * targetPause / time;
+        final long size = Math.min(scaled, lastSize * 2L);
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+}
@@ -20,60 +20,153 @@
 
 package org.fakereplace.core;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
 import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.com.google.common.collect.MapMaker;
+import org.fakereplace.logging.Logger;
 
+/**
+ * Notifies {@link ClassChangeAware} instances of class changes.
+ * <p/>
+ * After change notifications are run phase by phase, see {@link ClassChangePhase}. {@link PhasedClassChangeAware}
+ * listeners in the same phase are run in parallel on a bounded pool. Listeners that do not declare a phase
+ * are run on the calling thread, one at a time and in the order they were registered, before the parallel
+ * listeners of the {@link ClassChangePhase#FRAMEWORK} phase. If deferred notifications are enabled, deferrable
+ * phases are run in the background once the other phases are done, and must complete before the next change
+ * is started.
+ */
 public class ClassChangeNotifier {
 
+    private static final Logger log = Logger.getLogger(ClassChangeNotifier.class);
+
     private static final ClassChangeNotifier INSTANCE = new ClassChangeNotifier();
 
-    private static final ThreadLocal<Boolean> NOTIFICATION_IN_PROGRESS = new ThreadLocal<Boolean>() {
+    private static final boolean DEFER_NOTIFICATIONS = AgentOptions.set(AgentOption.DEFERRED_NOTIFICATIONS);
+
+    private static final int POOL_SIZE = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    /**
+     * marks the threads that are running listeners, so a listener that triggers a change does not wait for the
+     * deferred notifications it is part of
+     */
+    private static final ThreadLocal<Boolean> NOTIFICATION_THREAD = new ThreadLocal<Boolean>() {
         @Override
         protected Boolean initialValue() {
             return false;
         }
     };
 
+    /**
+     * set while the phases that are not deferred are running, so a change that is triggered by a listener on any
+     * thread does not notify the listeners again
+     */
+    private volatile boolean notificationInProgress;
 
     private final Map<ClassLoader, Set<ClassChangeAware>> classChangeAwares = new MapMaker().weakKeys().makeMap();
 
-    public void add(ClassChangeAware aware) {
+    private final Map<ClassChangeAware, Long> registrationOrder = new MapMaker().weakKeys().makeMap();
+
+    private long registrationCount;
+
+    private final ExecutorService notificationPool = Executors.newFixedThreadPool(POOL_SIZE, new NotificationThreadFactory("Fakereplace Notification Thread"));
+
+    private final ExecutorService deferredExecutor = Executors.newSingleThreadExecutor(new NotificationThreadFactory("Fakereplace Deferred Notification Thread"));
+
+    private volatile Future<?> deferredNotifications;
+
+    public synchronized void add(ClassChangeAware aware) {
         if (!classChangeAwares.containsKey(aware.getClass().getClassLoader())) {
-            classChangeAwares.put(aware.getClass().getClassLoader(), new HashSet<ClassChangeAware>());
+            classChangeAwares.put(aware.getClass().getClassLoader(), new CopyOnWriteArraySet<ClassChangeAware>());
         }
         classChangeAwares.get(aware.getClass().getClassLoader()).add(aware);
+        if (!registrationOrder.containsKey(aware)) {
+            registrationOrder.put(aware, registrationCount++);
+        }
     }
 
-     public void afterChange(List<ChangedClass> changed, List<ClassIdentifier> newClasses, final Attachments attachments) {
-        if (!NOTIFICATION_IN_PROGRESS.get()) {
-            NOTIFICATION_IN_PROGRESS.set(true);
-            try {
-                Class<?>[] a = new Class[0];
-                for (Set<ClassChangeAware> c : classChangeAwares.values()) {
-                    for (ClassChangeAware i : c) {
-                        try {
-                            i.afterChange(changed, newClasses, attachments);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
+    public void afterChange(final List<ChangedClass> changed, final List<ClassIdentifier> newClasses, final Attachments attachments) {
+        if (notificationInProgress || NOTIFICATION_THREAD.get()) {
+            return;
+        }
+        final Map<ClassChangePhase, List<ClassChangeAware>> phases = new EnumMap<ClassChangePhase, List<ClassChangeAware>>(ClassChangePhase.class);
+        for (ClassChangePhase phase : ClassChangePhase.values()) {
+            phases.put(phase, new ArrayList<ClassChangeAware>());
+        }
+        final List<ClassChangeAware> unphased = new ArrayList<ClassChangeAware>();
+        for (Set<ClassChangeAware> c : classChangeAwares.values()) {
+            for (ClassChangeAware i : c) {
+                if (i instanceof PhasedClassChangeAware) {
+                    phases.get(((PhasedClassChangeAware) i).getPhase()).add(i);
+                } else {
+                    unphased.add(i);
+                }
+            }
+        }
+        sortByRegistration(unphased);
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+        notificationInProgress = true;
+        try {
+            for (ClassChangePhase phase : ClassChangePhase.values()) {
+                if (phase == ClassChangePhase.FRAMEWORK) {
+                    for (ClassChangeAware aware : unphased) {
+                        notify(aware, changed, newClasses, attachments);
                     }
                 }
-            } finally {
-                NOTIFICATION_IN_PROGRESS.set(false);
+                if (!isDeferred(phase)) {
+                    runPhase(phases.get(phase), changed, newClasses, attachments, contextClassLoader);
+                }
+            }
+        } finally {
+            notificationInProgress = false;
+        }
+
+        final List<List<ClassChangeAware>> deferred = new ArrayList<List<ClassChangeAware>>();
+        for (ClassChangePhase phase : ClassChangePhase.values()) {
+            if (isDeferred(phase) && !phases.get(phase).isEmpty()) {
+                deferred.add(phases.get(phase));
             }
         }
+        if (!deferred.isEmpty()) {
+            deferredNotifications = deferredExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Thread.currentThread().setContextClassLoader(contextClassLoader);
+                    NOTIFICATION_THREAD.set(true);
+                    try {
+                        for (List<ClassChangeAware> phase : deferred) {
+                            runPhase(phase, changed, newClasses, attachments, contextClassLoader);
+                        }
+                    } finally {
+                        NOTIFICATION_THREAD.set(false);
+                        Thread.currentThread().setContextClassLoader(null);
+                    }
+                }
+            });
+        }
     }
 
     public void beforeChange(List<Class<?>> changed, List<ClassIdentifier> newClasses, final Attachments attachments) {
-        Class<?>[] a = new Class[0];
+        awaitDeferredNotifications();
         for (Set<ClassChangeAware> c : classChangeAwares.values()) {
             for (ClassChangeAware i : c) {
                 try {
@@ -85,7 +178,111 @@ public class ClassChangeNotifier {
         }
     }
 
+    private void sortByRegistration(final List<ClassChangeAware> awares) {
+        Collections.sort(awares, new Comparator<ClassChangeAware>() {
+            @Override
+            public int compare(final ClassChangeAware o1, final ClassChangeAware o2) {
+                final long first = registrationIndex(o1);
+                final long second = registrationIndex(o2);
+                return first < second ? -1 : (first == second ? 0 : 1);
+            }
+        });
+    }
+
+    private long registrationIndex(final ClassChangeAware aware) {
+        final Long index = registrationOrder.get(aware);
+        return index == null ? Long.MAX_VALUE : index;
+    }
+
+    private static boolean isDeferred(final ClassChangePhase phase) {
+        return DEFER_NOTIFICATIONS && phase.isDeferrable();
+    }
+
+    /**
+     * Waits for the deferred phases of the previous change to complete
+     */
+    public void awaitDeferredNotifications() {
+        final Future<?> deferred = deferredNotifications;
+        //a listener that triggers a change must not wait for itself
+        if (deferred != null && !NOTIFICATION_THREAD.get()) {
+            try {
+                deferred.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.error("Deferred class change notification failed", e.getCause());
+            }
+        }
+    }
+
+    private void runPhase(final List<ClassChangeAware> awares, final List<ChangedClass> changed, final List<ClassIdentifier> newClasses, final Attachments attachments, final ClassLoader contextClassLoader) {
+        if (awares.isEmpty()) {
+            return;
+        }
+        if (awares.size() == 1) {
+            notify(awares.get(0), changed, newClasses, attachments);
+            return;
+        }
+        final List<Future<?>> futures = new ArrayList<Future<?>>(awares.size());
+        for (final ClassChangeAware aware : awares) {
+            futures.add(notificationPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final ClassLoader old = Thread.currentThread().getContextClassLoader();
+                    Thread.currentThread().setContextClassLoader(contextClassLoader);
+                    NOTIFICATION_THREAD.set(true);
+                    try {
+                        ClassChangeNotifier.this.notify(aware, changed, newClasses, attachments);
+                    } finally {
+                        NOTIFICATION_THREAD.set(false);
+                        Thread.currentThread().setContextClassLoader(old);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Class change notification failed", e.getCause());
+            }
+        }
+    }
+
+    private void notify(final ClassChangeAware aware, final List<ChangedClass> changed, final List<ClassIdentifier> newClasses, final Attachments attachments) {
+        final long start = System.nanoTime();
+        try {
+            aware.afterChange(changed, newClasses, attachments);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (log.isDebugEnabled()) {
+                log.debug(aware.getClass().getName() + " processed class change in " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        }
+    }
+
     public static ClassChangeNotifier instance() {
         return INSTANCE;
     }
+
+    private static final class NotificationThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NotificationThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -97,6 +97,10 @@ public class ClassLoaderInstrumentation {
                 b.add(Opcode.DUP);
                 b.add(Opcode.IFNULL);
                 JumpMarker notFound = JumpUtils.addJumpInstruction(b);
+                // the class is already defined, the bytes are not needed any more
+                b.addAload(1);
+                b.addAload(0);
+                b.addInvokestatic(ClassLookupManager.class.getName(), "classDefined", "(Ljava/lang/String;Ljava/lang/Object;)V");
                 b.add(Opcode.ARETURN);
                 notFound.mark();
                 b.add(Opcode.POP);
@@ -108,6 +112,10 @@ public class ClassLoaderInstrumentation {
                 b.addAload(3);
                 b.add(Opcode.ARRAYLENGTH);
                 b.addInvokevirtual("java.lang.ClassLoader", "defineClass", "(Ljava/lang/String;[BII)Ljava/lang/Class;");
+                // only drop the bytes once defineClass has succeeded
+                b.addAload(1);
+                b.addAload(0);
+                b.addInvokestatic(ClassLookupManager.class.getName(), "classDefined", "(Ljava/lang/String;Ljava/lang/Object;)V");
                 if (method.getDescriptor().equals("Ljava/lang/String;Z)Ljava/lang/Class;")) {
                     b.addIload(2);
                 } else {
@@ -33,6 +33,4 @@ public class Constants {
 
     public static final String ADDED_CONSTRUCTOR_DESCRIPTOR = "(I[Ljava/lang/Object;Lorg/fakereplace/core/ConstructorArgument;)V";
 
-    public static final String FINAL_METHOD_ATTRIBUTE = "org.fakereplace.final";
-
 }
@@ -20,6 +20,7 @@
 
 package org.fakereplace.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -28,10 +29,13 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.fakereplace.api.environment.ChangedClasses;
 import org.fakereplace.api.environment.Environment;
+import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.logging.Logger;
+import org.fakereplace.util.PrefixTrie;
 
 /**
  * class that stores some basic environment info.
@@ -44,6 +48,15 @@ public class DefaultEnvironment implements Environment {
 
     protected static final String[] replaceablePackages;
 
+    private static final PrefixTrie replaceablePackageTrie;
+
+    /**
+     * cache of whether a package is loaded from a directory, keyed by class loader and then package name. This is the
+     * only part of the decision that needs a resource lookup, and it is kept by package so the cache does not grow
+     * with every class that is loaded.
+     */
+    private final ConcurrentMap<ClassLoader, ConcurrentMap<String, Boolean>> directoryPackageCache = new MapMaker().weakKeys().makeMap();
+
     private final Map<String, Long> timestamps = new ConcurrentHashMap<String, Long>();
     private final Map<String, ClassLoader> loaders = new ConcurrentHashMap<String, ClassLoader>();
 
@@ -54,27 +67,42 @@ public class DefaultEnvironment implements Environment {
         } else {
             replaceablePackages = plist.split(";");
         }
+        replaceablePackageTrie = PrefixTrie.of(replaceablePackages);
     }
 
     @Override
     public boolean isClassReplaceable(String className, ClassLoader loader) {
-        for (String i : replaceablePackages) {
-            if (className.startsWith(i)) {
-                return true;
-            }
+        if (replaceablePackageTrie.matchesPrefix(className)) {
+            return true;
         }
         if (className.contains("$Proxy")) {
             return true;
         }
-        if (loader != null) {
-            URL u = loader.getResource(className.replace('.', '/') + ".class");
-            if (u != null) {
-                if (u.getProtocol().equals("file") || u.getProtocol().equals("vfsfile")) {
-                    return true;
-                }
+        if (loader == null) {
+            return false;
+        }
+        ConcurrentMap<String, Boolean> loaderCache = directoryPackageCache.get(loader);
+        if (loaderCache == null) {
+            loaderCache = new ConcurrentHashMap<String, Boolean>();
+            final ConcurrentMap<String, Boolean> existing = directoryPackageCache.putIfAbsent(loader, loaderCache);
+            if (existing != null) {
+                loaderCache = existing;
             }
         }
-        return false;
+        final int index = Math.max(className.lastIndexOf('.'), className.lastIndexOf('/'));
+        final String packageName = index == -1 ? "" : className.substring(0, index);
+        final Boolean result = loaderCache.get(packageName);
+        if (result != null) {
+            return result;
+        }
+        final URL u = loader.getResource(className.replace('.', '/') + ".class");
+        if (u == null) {
+            //a generated class, this says nothing about the rest of the package
+            return false;
+        }
+        final boolean directory = u.getProtocol().equals("file") || u.getProtocol().equals("vfsfile");
+        loaderCache.put(packageName, directory);
+        return directory;
     }
 
     public void recordTimestamp(String className, ClassLoader loader) {
@@ -120,7 +148,7 @@ public class DefaultEnvironment implements Environment {
     }
 
     @Override
-    public void updateResource(final String archiveName, final Map<String, byte[]> replacedResources) {
+    public void updateResource(final String archiveName, final Map<String, File> replacedResources) {
 
     }
 
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.core;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+import org.fakereplace.util.DescriptorUtils;
+
+/**
+ * Delegators for added methods that take their arguments in a fixed set of typed 'registers' rather than
+ * boxed into an Object[], so calls to small added methods do not allocate.
+ * <p/>
+ * Every delegator takes the method number, three longs, two doubles and three Objects. Integral parameters
+ * (boolean, byte, char, short, int and long) are widened to long, float and double are widened to double,
+ * and everything else is passed as an Object. Unused registers are passed as zero or null. There is one
+ * delegator for each kind of return value, widened in the same way.
+ * <p/>
+ * As with the boxed delegators these have to be added to every class when it is first loaded, as methods
+ * cannot be added when the class is redefined. Methods that do not fit into the registers still go
+ * through the boxed delegators.
+ * <p/>
+ * As this adds eight methods to every replaceable class, and four to every interface, the delegators are
+ * only used if the <code>specialised-delegators</code> agent option is set.
+ */
+public enum SpecialisedDelegator {
+
+    VOID('V', "V", Opcode.RETURN),
+    INTEGRAL('J', "J", Opcode.LRETURN),
+    FLOATING('D', "D", Opcode.DRETURN),
+    REFERENCE('L', "Ljava/lang/Object;", Opcode.ARETURN);
+
+    private static final boolean ENABLED = AgentOptions.set(AgentOption.SPECIALISED_DELEGATORS);
+
+    private static final SpecialisedDelegator[] NONE = {};
+
+    public static final int INTEGRAL_REGISTERS = 3;
+
+    public static final int FLOATING_REGISTERS = 2;
+
+    public static final int REFERENCE_REGISTERS = 3;
+
+    private static final String PARAMETER_DESCRIPTOR = "(IJJJDDLjava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)";
+
+    public static final Class<?>[] PARAMETER_TYPES = {int.class, long.class, long.class, long.class, double.class, double.class, Object.class, Object.class, Object.class};
+
+    /**
+     * The number of local variable slots taken up by the delegator parameters, not including this
+     */
+    public static final int PARAMETER_SLOTS = 1 + INTEGRAL_REGISTERS * 2 + FLOATING_REGISTERS * 2 + REFERENCE_REGISTERS;
+
+    private final char suffix;
+    private final String descriptor;
+    private final int returnOpcode;
+
+    private SpecialisedDelegator(final char suffix, final String returnType, final int returnOpcode) {
+        this.suffix = suffix;
+        this.descriptor = PARAMETER_DESCRIPTOR + returnType;
+        this.returnOpcode = returnOpcode;
+    }
+
+    public String getMethodName(final boolean staticMethod) {
+        return (staticMethod ? Constants.ADDED_STATIC_METHOD_NAME : Constants.ADDED_METHOD_NAME) + suffix;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * @return the delegators that are added to replaceable classes, which is none unless they have been enabled
+     */
+    public static SpecialisedDelegator[] enabled() {
+        return ENABLED ? values() : NONE;
+    }
+
+    /**
+     * Returns the delegator that a method with the given descriptor can be called through, or null if the
+     * parameters do not fit into the registers or the delegators are not enabled.
+     */
+    public static SpecialisedDelegator forMethod(final String methodDescriptor) {
+        if (!ENABLED) {
+            return null;
+        }
+        int integral = 0;
+        int floating = 0;
+        int reference = 0;
+        for (String param : DescriptorUtils.descriptorStringToParameterArray(methodDescriptor)) {
+            switch (kind(param.charAt(0))) {
+                case INTEGRAL:
+                    integral++;
+                    break;
+                case FLOATING:
+                    floating++;
+                    break;
+                default:
+                    reference++;
+            }
+        }
+        if (integral > INTEGRAL_REGISTERS || floating > FLOATING_REGISTERS || reference > REFERENCE_REGISTERS) {
+            return null;
+        }
+        return kind(DescriptorUtils.getReturnType(methodDescriptor).charAt(0));
+    }
+
+    private static SpecialisedDelegator kind(final char type) {
+        switch (type) {
+            case 'V':
+                return VOID;
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+            case 'J':
+                return INTEGRAL;
+            case 'F':
+            case 'D':
+                return FLOATING;
+            default:
+                return REFERENCE;
+        }
+    }
+
+    /**
+     * Creates the stub delegator method that is added to a class. Virtual delegators pass the call to the
+     * superclass, static delegators return a default value.
+     */
+    public MethodInfo createMethod(final ClassFile file, final boolean staticMethod) {
+        final MethodInfo method = new MethodInfo(file.getConstPool(), getMethodName(staticMethod), descriptor);
+        if (file.isInterface()) {
+            method.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT | AccessFlag.SYNTHETIC);
+            return method;
+        }
+        method.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.SYNTHETIC | (staticMethod ? AccessFlag.STATIC : 0));
+        final Bytecode b = new Bytecode(file.getConstPool());
+        if (staticMethod || BuiltinClassData.skipInstrumentation(file.getSuperclass())) {
+            addDefaultReturn(b);
+        } else {
+            b.addAload(0);
+            b.addIload(1);
+            for (int i = 0; i < INTEGRAL_REGISTERS; ++i) {
+                b.addLload(1 + integralSlot(i));
+            }
+            for (int i = 0; i < FLOATING_REGISTERS; ++i) {
+                b.addDload(1 + floatingSlot(i));
+            }
+            for (int i = 0; i < REFERENCE_REGISTERS; ++i) {
+                b.addAload(1 + referenceSlot(i));
+            }
+            b.addInvokespecial(file.getSuperclass(), getMethodName(false), descriptor);
+            b.add(returnOpcode);
+        }
+        final CodeAttribute ca = b.toCodeAttribute();
+        ca.setMaxLocals(PARAMETER_SLOTS + (staticMethod ? 0 : 1));
+        try {
+            ca.computeMaxStack();
+        } catch (BadBytecode e) {
+            throw new RuntimeException(e);
+        }
+        method.setCodeAttribute(ca);
+        return method;
+    }
+
+    private void addDefaultReturn(final Bytecode b) {
+        switch (this) {
+            case INTEGRAL:
+                b.add(Opcode.LCONST_0);
+                break;
+            case FLOATING:
+                b.add(Opcode.DCONST_0);
+                break;
+            case REFERENCE:
+                b.add(Opcode.ACONST_NULL);
+                break;
+        }
+        b.add(returnOpcode);
+    }
+
+    /**
+     * Loads the parameters of a method onto the stack as delegator registers. The method number must
+     * already be on the stack.
+     *
+     * @param firstParameter the local variable slot of the first parameter
+     */
+    public static void loadRegisters(final Bytecode b, final String methodDescriptor, final int firstParameter) {
+        final String[] params = DescriptorUtils.descriptorStringToParameterArray(methodDescriptor);
+        final int[] slots = parameterSlots(params, firstParameter);
+        int used = 0;
+        for (int i = 0; i < params.length; ++i) {
+            if (kind(params[i].charAt(0)) == INTEGRAL) {
+                if (params[i].charAt(0) == 'J') {
+                    b.addLload(slots[i]);
+                } else {
+                    b.addIload(slots[i]);
+                    b.add(Opcode.I2L);
+                }
+                used++;
+            }
+        }
+        for (; used < INTEGRAL_REGISTERS; ++used) {
+            b.add(Opcode.LCONST_0);
+        }
+        used = 0;
+        for (int i = 0; i < params.length; ++i) {
+            if (kind(params[i].charAt(0)) == FLOATING) {
+                if (params[i].charAt(0) == 'D') {
+                    b.addDload(slots[i]);
+                } else {
+                    b.addFload(slots[i]);
+                    b.add(Opcode.F2D);
+                }
+                used++;
+            }
+        }
+        for (; used < FLOATING_REGISTERS; ++used) {
+            b.add(Opcode.DCONST_0);
+        }
+        used = 0;
+        for (int i = 0; i < params.length; ++i) {
+            if (kind(params[i].charAt(0)) == REFERENCE) {
+                b.addAload(slots[i]);
+                used++;
+            }
+        }
+        for (; used < REFERENCE_REGISTERS; ++used) {
+            b.add(Opcode.ACONST_NULL);
+        }
+    }
+
+    /**
+     * Generates code that copies the delegator registers into the parameter slots of the method
+     * that is being added to the delegator.
+     *
+     * @param offset         the slot of the method number, 0 for static delegators and 1 for virtual ones
+     * @param firstParameter the slot of the first parameter of the added method
+     */
+    public static Bytecode unpackRegisters(final ConstPool constPool, final String methodDescriptor, final int offset, final int firstParameter) {
+        final Bytecode b = new Bytecode(constPool);
+        final String[] params = DescriptorUtils.descriptorStringToParameterArray(methodDescriptor);
+        final int[] slots = parameterSlots(params, firstParameter);
+        int integral = 0;
+        int floating = 0;
+        int reference = 0;
+        for (int i = 0; i < params.length; ++i) {
+            final char type = params[i].charAt(0);
+            switch (kind(type)) {
+                case INTEGRAL:
+                    b.addLload(offset + integralSlot(integral++));
+                    if (type == 'J') {
+                        b.addLstore(slots[i]);
+                    } else {
+                        b.add(Opcode.L2I);
+                        b.addIstore(slots[i]);
+                    }
+                    break;
+                case FLOATING:
+                    b.addDload(offset + floatingSlot(floating++));
+                    if (type == 'D') {
+                        b.addDstore(slots[i]);
+                    } else {
+                        b.add(Opcode.D2F);
+                        b.addFstore(slots[i]);
+                    }
+                    break;
+                default:
+                    b.addAload(offset + referenceSlot(reference++));
+                    if (type == 'L') {
+                        b.addCheckcast(params[i].substring(1));
+                    } else if (params[i].charAt(params[i].lastIndexOf('[') + 1) == 'L') {
+                        // object array types come back without the trailing semicolon
+                        b.addCheckcast(params[i] + ';');
+                    } else {
+                        b.addCheckcast(params[i]);
+                    }
+                    b.addAstore(slots[i]);
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Rewrites the return instructions of an added method body so they return the widened type
+     * the delegator returns.
+     */
+    public static void rewriteReturns(final CodeIterator methodBody, final String methodDescriptor) {
+        final char ret = DescriptorUtils.getReturnType(methodDescriptor).charAt(0);
+        final int widen;
+        final int newReturn;
+        if (ret == 'F') {
+            widen = Opcode.F2D;
+            newReturn = Opcode.DRETURN;
+        } else if (ret == 'Z' || ret == 'B' || ret == 'C' || ret == 'S' || ret == 'I') {
+            widen = Opcode.I2L;
+            newReturn = Opcode.LRETURN;
+        } else {
+            // already the right type
+            return;
+        }
+        final int oldReturn = ret == 'F' ? Opcode.FRETURN : Opcode.IRETURN;
+        while (methodBody.hasNext()) {
+            try {
+                final int index = methodBody.next();
+                if (methodBody.byteAt(index) == oldReturn) {
+                    methodBody.writeByte(newReturn, index);
+                    final Bytecode b = new Bytecode(methodBody.get().getConstPool());
+                    b.add(widen);
+                    methodBody.insertAt(index, b.get());
+                }
+            } catch (BadBytecode e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Adds the code that narrows the value the delegator returned and returns it from the proxy method
+     */
+    public static void addProxyReturn(final Bytecode b, final String methodDescriptor) {
+        final String ret = DescriptorUtils.getReturnType(methodDescriptor);
+        switch (ret.charAt(0)) {
+            case 'V':
+                b.add(Opcode.RETURN);
+                break;
+            case 'J':
+                b.add(Opcode.LRETURN);
+                break;
+            case 'D':
+                b.add(Opcode.DRETURN);
+                break;
+            case 'F':
+                b.add(Opcode.D2F);
+                b.add(Opcode.FRETURN);
+                break;
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+                b.add(Opcode.L2I);
+                b.add(Opcode.IRETURN);
+                break;
+            default:
+                b.addCheckcast(DescriptorUtils.getReturnTypeInJvmFormat(methodDescriptor));
+                b.add(Opcode.ARETURN);
+        }
+    }
+
+    /**
+     * Converts boxed arguments into delegator arguments, for callers that invoke the delegator reflectively
+     */
+    public static Object[] toRegisters(final int methodNumber, final String methodDescriptor, final Object[] params) {
+        final Object[] ret = new Object[PARAMETER_TYPES.length];
+        ret[0] = methodNumber;
+        for (int i = 0; i < INTEGRAL_REGISTERS; ++i) {
+            ret[1 + i] = 0L;
+        }
+        for (int i = 0; i < FLOATING_REGISTERS; ++i) {
+            ret[1 + INTEGRAL_REGISTERS + i] = 0D;
+        }
+        final String[] types = DescriptorUtils.descriptorStringToParameterArray(methodDescriptor);
+        int integral = 0;
+        int floating = 0;
+        int reference = 0;
+        for (int i = 0; i < types.length; ++i) {
+            final Object param = params[i];
+            switch (kind(types[i].charAt(0))) {
+                case INTEGRAL:
+                    final long value;
+                    if (param instanceof Boolean) {
+                        value = (Boolean) param ? 1 : 0;
+                    } else if (param instanceof Character) {
+                        value = (Character) param;
+                    } else {
+                        value = ((Number) param).longValue();
+                    }
+                    ret[1 + integral++] = value;
+                    break;
+                case FLOATING:
+                    ret[1 + INTEGRAL_REGISTERS + floating++] = ((Number) param).doubleValue();
+                    break;
+                default:
+                    ret[1 + INTEGRAL_REGISTERS + FLOATING_REGISTERS + reference++] = param;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Converts the value returned from a reflective delegator call back into the boxed form of the
+     * methods real return type
+     */
+    public static Object fromRegister(final String methodDescriptor, final Object result) {
+        switch (DescriptorUtils.getReturnType(methodDescriptor).charAt(0)) {
+            case 'Z':
+                return ((Long) result) != 0;
+            case 'B':
+                return (byte) (long) (Long) result;
+            case 'C':
+                return (char) (long) (Long) result;
+            case 'S':
+                return (short) (long) (Long) result;
+            case 'I':
+                return (int) (long) (Long) result;
+            case 'F':
+                return (float) (double) (Double) result;
+            default:
+                return result;
+        }
+    }
+
+    private static int integralSlot(final int register) {
+        return 1 + register * 2;
+    }
+
+    private static int floatingSlot(final int register) {
+        return 1 + INTEGRAL_REGISTERS * 2 + register * 2;
+    }
+
+    private static int referenceSlot(final int register) {
+        return 1 + INTEGRAL_REGISTERS * 2 + FLOATING_REGISTERS * 2 + register;
+    }
+
+    private static int[] parameterSlots(final String[] params, final int firstParameter) {
+        final int[] slots = new int[params.length];
+        int slot = firstParameter;
+        for (int i = 0; i < params.length; ++i) {
+            slots[i] = slot;
+            slot += DescriptorUtils.isWide(params[i]) ? 2 : 1;
+        }
+        return slots;
+    }
+}
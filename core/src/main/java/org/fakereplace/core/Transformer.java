@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import javassist.ClassPool;
 import javassist.bytecode.AccessFlag;
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.BadBytecode;
@@ -43,6 +42,7 @@ import org.fakereplace.api.environment.CurrentEnvironment;
 import org.fakereplace.data.BaseClassData;
 import org.fakereplace.data.ClassDataStore;
 import org.fakereplace.data.InstanceTracker;
+import org.fakereplace.data.OriginalAnnotationStore;
 import org.fakereplace.manip.Manipulator;
 import org.fakereplace.manip.util.ManipulationUtils;
 import org.fakereplace.reflection.ReflectionInstrumentationSetup;
@@ -74,82 +74,77 @@ public class Transformer implements FakereplaceTransformer {
         }
     }
 
+    /**
+     * Stack maps are not rebuilt here, the stub methods that are added are straight line code, the
+     * {@link Manipulator} rebuilds the methods it rewrites, and {@link org.fakereplace.transformation.MainTransformer}
+     * does a final pass over modified classes.
+     */
     public boolean transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, ClassFile file) throws IllegalClassFormatException, BadBytecode {
         boolean modified = false;
-        try {
-            if (classBeingRedefined != null) {
-                ClassDataStore.instance().markClassReplaced(classBeingRedefined);
-            }
-            for (FakereplaceTransformer i : integrationTransformers) {
-                if (i.transform(loader, className, classBeingRedefined, protectionDomain, file)) {
-                    modified = true;
-                }
+        if (classBeingRedefined != null) {
+            ClassDataStore.instance().markClassReplaced(classBeingRedefined);
+        }
+        for (FakereplaceTransformer i : integrationTransformers) {
+            if (i.transform(loader, className, classBeingRedefined, protectionDomain, file)) {
+                modified = true;
             }
-            // we do not instrument any classes from fakereplace
-            // if we did we get an endless loop
-            // we also avoid instrumenting much of the java/lang and
-            // java/io namespace except for java/lang/reflect/Proxy
-            if (BuiltinClassData.skipInstrumentation(className)) {
-                if (classBeingRedefined != null && manipulator.transformClass(file, loader, false)) {
-                    modified = true;
-                }
-                return modified;
+        }
+        // we do not instrument any classes from fakereplace
+        // if we did we get an endless loop
+        // we also avoid instrumenting much of the java/lang and
+        // java/io namespace except for java/lang/reflect/Proxy
+        if (BuiltinClassData.skipInstrumentation(className)) {
+            if (classBeingRedefined != null && manipulator.transformClass(file, loader, false)) {
+                modified = true;
             }
+            return modified;
+        }
 
 
-            if (classBeingRedefined == null) {
-                AnnotationsAttribute at = (AnnotationsAttribute) file.getAttribute(AnnotationsAttribute.invisibleTag);
-                if (at != null) {
-                    // NoInstrument is used for testing or by integration modules
-                    Object an = at.getAnnotation(NoInstrument.class.getName());
-                    if (an != null) {
-                        return modified;
-                    }
+        if (classBeingRedefined == null) {
+            AnnotationsAttribute at = (AnnotationsAttribute) file.getAttribute(AnnotationsAttribute.invisibleTag);
+            if (at != null) {
+                // NoInstrument is used for testing or by integration modules
+                Object an = at.getAnnotation(NoInstrument.class.getName());
+                if (an != null) {
+                    return modified;
                 }
             }
+        }
 
-            if (trackedInstances.contains(file.getName())) {
-                makeTrackedInstance(file);
-                modified = true;
-            }
-
-            final boolean replaceable = CurrentEnvironment.getEnvironment().isClassReplaceable(className, loader);
-            if (manipulator.transformClass(file, loader, replaceable)) {
-                modified = true;
-            }
+        if (trackedInstances.contains(file.getName())) {
+            makeTrackedInstance(file);
+            modified = true;
+        }
 
-            if (replaceable) {
-                if ((AccessFlag.ENUM & file.getAccessFlags()) == 0 && (AccessFlag.ANNOTATION & file.getAccessFlags()) == 0) {
-                    modified = true;
+        final boolean replaceable = CurrentEnvironment.getEnvironment().isClassReplaceable(className, loader);
+        if (replaceable && classBeingRedefined == null) {
+            OriginalAnnotationStore.recordOriginalAnnotations(loader, file);
+        }
+        if (manipulator.transformClass(file, loader, replaceable)) {
+            modified = true;
+        }
 
-                    CurrentEnvironment.getEnvironment().recordTimestamp(className, loader);
-                    if (file.isInterface()) {
-                        addAbstractMethodForInstrumentation(file);
-                    } else {
-                        addMethodForInstrumentation(file);
-                        addConstructorForInstrumentation(file);
-                        addStaticConstructorForInstrumentation(file);
-                    }
-                }
+        if (replaceable) {
+            if ((AccessFlag.ENUM & file.getAccessFlags()) == 0 && (AccessFlag.ANNOTATION & file.getAccessFlags()) == 0) {
+                modified = true;
 
-                BaseClassData baseData = new BaseClassData(file, loader, replaceable);
-                ClassDataStore.instance().saveClassData(loader, baseData.getInternalName(), baseData);
-            }
-            // SerialVersionUIDChecker.testReflectionInfo(loader, file.getName(),
-            // file.getSuperclass(), classfileBuffer);
-            return modified;
-        } finally {
-            if (modified) {
-                try {
-                    for (MethodInfo method : (List<MethodInfo>) file.getMethods()) {
-                        method.rebuildStackMap(ClassPool.getDefault());
-                    }
-                } catch (BadBytecode e) {
-                    throw new RuntimeException(e);
+                CurrentEnvironment.getEnvironment().recordTimestamp(className, loader);
+                if (file.isInterface()) {
+                    addAbstractMethodForInstrumentation(file);
+                } else {
+                    addMethodForInstrumentation(file);
+                    addConstructorForInstrumentation(file);
+                    addStaticConstructorForInstrumentation(file);
                 }
             }
-        }
 
+            BaseClassData baseData = new BaseClassData(file, loader, replaceable);
+            ClassDataStore.instance().saveClassData(loader, baseData.getInternalName(), baseData);
+        }
+        // SerialVersionUIDChecker.testReflectionInfo(loader, file.getName(),
+        // file.getSuperclass(), classfileBuffer);
+        return modified;
     }
 
     /**
@@ -195,6 +190,14 @@ public class Transformer implements FakereplaceTransformer {
         } catch (DuplicateMemberException e) {
             // e.printStackTrace();
         }
+        for (SpecialisedDelegator delegator : SpecialisedDelegator.enabled()) {
+            try {
+                file.addMethod(delegator.createMethod(file, false));
+                file.addMethod(delegator.createMethod(file, true));
+            } catch (DuplicateMemberException e) {
+                // e.printStackTrace();
+            }
+        }
     }
 
     public static void addStaticConstructorForInstrumentation(ClassFile file) {
@@ -224,6 +227,13 @@ public class Transformer implements FakereplaceTransformer {
         } catch (DuplicateMemberException e) {
             // e.printStackTrace();
         }
+        for (SpecialisedDelegator delegator : SpecialisedDelegator.enabled()) {
+            try {
+                file.addMethod(delegator.createMethod(file, false));
+            } catch (DuplicateMemberException e) {
+                // e.printStackTrace();
+            }
+        }
     }
 
     void addConstructorForInstrumentation(ClassFile file) {
@@ -264,9 +274,9 @@ public class Transformer implements FakereplaceTransformer {
         for (MethodInfo m : (List<MethodInfo>) file.getMethods()) {
             if (m.getName().equals("<init>")) {
                 Bytecode code = new Bytecode(file.getConstPool());
-                code.addLdc(file.getName());
+                code.addIconst(InstanceTracker.handle(file.getName()));
                 code.addAload(0);
-                code.addInvokestatic(InstanceTracker.class.getName(), "add", "(Ljava/lang/String;Ljava/lang/Object;)V");
+                code.addInvokestatic(InstanceTracker.class.getName(), "add", "(ILjava/lang/Object;)V");
                 CodeIterator it = m.getCodeAttribute().iterator();
                 it.skipConstructor();
                 it.insert(code.get());
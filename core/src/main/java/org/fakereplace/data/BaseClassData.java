@@ -24,7 +24,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -46,8 +45,8 @@ public class BaseClassData {
 
     private final String className;
     private final String internalName;
-    private final Set<MethodData> methods;
-    private final Set<FieldData> fields;
+    private final MethodTable methods;
+    private final FieldTable fields;
     private final ClassLoader loader;
     private final String superClassName;
     private final boolean replaceable;
@@ -58,31 +57,31 @@ public class BaseClassData {
         internalName = Descriptor.toJvmName(file.getName());
         this.loader = loader;
         superClassName = file.getSuperclass();
-        boolean finalMethod = false;
         Set<MethodData> meths = new HashSet<MethodData>();
         for (Object o : file.getMethods()) {
             String methodClassName = className;
             MethodInfo m = (MethodInfo) o;
             MemberType type = MemberType.NORMAL;
-            if ((m.getDescriptor().equals(Constants.ADDED_METHOD_DESCRIPTOR) && m.getName().equals(Constants.ADDED_METHOD_NAME))
-                    || (m.getDescriptor().equals(Constants.ADDED_STATIC_METHOD_DESCRIPTOR) && m.getName().equals(Constants.ADDED_STATIC_METHOD_NAME))
+            boolean finalMethod = false;
+            if (m.getName().startsWith(Constants.ADDED_METHOD_NAME)
+                    || m.getName().startsWith(Constants.ADDED_STATIC_METHOD_NAME)
                     || (m.getDescriptor().equals(Constants.ADDED_CONSTRUCTOR_DESCRIPTOR))) {
                 type = MemberType.ADDED_SYSTEM;
-            } else if (m.getAttribute(Constants.FINAL_METHOD_ATTRIBUTE) != null) {
+            } else if (ClassDataStore.instance().isMethodDefinalised(loader, className, m.getName(), m.getDescriptor())) {
                 finalMethod = true;
             }
 
             MethodData md = new MethodData(m.getName(), m.getDescriptor(), methodClassName, type, m.getAccessFlags(), finalMethod);
             meths.add(md);
         }
-        this.methods = Collections.unmodifiableSet(meths);
+        this.methods = MethodTable.of(meths);
         Set<FieldData> fieldData = new HashSet<FieldData>();
         for (Object o : file.getFields()) {
             FieldInfo m = (FieldInfo) o;
             MemberType mt = MemberType.NORMAL;
             fieldData.add(new FieldData(m, mt, className, m.getAccessFlags()));
         }
-        this.fields = Collections.unmodifiableSet(fieldData);
+        this.fields = FieldTable.of(fieldData);
     }
 
     public BaseClassData(Class<?> cls) {
@@ -99,8 +98,7 @@ public class BaseClassData {
         for (Method m : cls.getDeclaredMethods()) {
             MemberType type = MemberType.NORMAL;
             final String descriptor = DescriptorUtils.getDescriptor(m);
-            if ((descriptor.equals(Constants.ADDED_METHOD_DESCRIPTOR) && m.getName().equals(Constants.ADDED_METHOD_NAME))
-                    || (descriptor.equals(Constants.ADDED_STATIC_METHOD_DESCRIPTOR) && m.getName().equals(Constants.ADDED_STATIC_METHOD_NAME))) {
+            if (m.getName().startsWith(Constants.ADDED_METHOD_NAME) || m.getName().startsWith(Constants.ADDED_STATIC_METHOD_NAME)) {
                 type = MemberType.ADDED_SYSTEM;
             }
             MethodData md = new MethodData(m.getName(), descriptor, cls.getName(), type, m.getModifiers(), false);
@@ -116,12 +114,12 @@ public class BaseClassData {
             meths.add(md);
         }
 
-        this.methods = Collections.unmodifiableSet(meths);
+        this.methods = MethodTable.of(meths);
         Set<FieldData> fieldData = new HashSet<FieldData>();
         for (Field m : cls.getDeclaredFields()) {
             fieldData.add(new FieldData(m));
         }
-        this.fields = Collections.unmodifiableSet(fieldData);
+        this.fields = FieldTable.of(fieldData);
     }
 
     public String getSuperClassName() {
@@ -141,10 +139,18 @@ public class BaseClassData {
     }
 
     public Collection<MethodData> getMethods() {
-        return methods;
+        return methods.getMethods();
     }
 
     public Collection<FieldData> getFields() {
+        return fields.getFields();
+    }
+
+    MethodTable getMethodTable() {
+        return methods;
+    }
+
+    FieldTable getFieldTable() {
         return fields;
     }
 
@@ -21,19 +21,19 @@
 package org.fakereplace.data;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
-import org.fakereplace.com.google.common.base.Function;
-import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.util.DescriptorUtils;
 
 /**
  * This class holds everything there is to know about a class that has been seen
  * by the transformer
+ * <p/>
+ * Members are held in immutable sorted tables. Classes that have not been modified share
+ * the tables of their {@link BaseClassData}.
  *
  * @author stuart
  */
@@ -41,17 +41,13 @@ public class ClassData {
 
     private final String className;
     private final String internalName;
-    private final Map<String, Map<String, Set<MethodData>>> methods = new MapMaker().makeMap();
-    private final Map<Method, MethodData> methodsByMethod = new MapMaker().makeComputingMap(new MethodResolver());
-    private final Map<String, FieldData> fields = new MapMaker().makeMap();
-    private final Set<MethodData> methodSet = new HashSet<MethodData>();
+    private final MethodTable methods;
+    private final FieldTable fields;
     private final ClassLoader loader;
     private final String superClassName;
     private final boolean signitureModified;
     private final boolean replaceable;
 
-    private static final MethodData NULL_METHOD_DATA = new MethodData("", "", "", null, 0, false);
-
     ClassData(BaseClassData data, Set<MethodData> addMethods, Set<MethodData> removedMethods, Set<FieldData> addedFields, Set<FieldData> removedFields) {
         className = data.getClassName();
         internalName = data.getInternalName();
@@ -59,60 +55,55 @@ public class ClassData {
         superClassName = data.getSuperClassName();
         signitureModified = removedFields.isEmpty() && removedMethods.isEmpty() && addedFields.isEmpty() && addMethods.isEmpty();
         replaceable = data.isReplaceable();
-        for (MethodData m : data.getMethods()) {
-            if (!removedMethods.contains(m)) {
-                addMethod(m);
-            }
-        }
-        for (FieldData f : data.getFields()) {
-            if (!removedFields.contains(f)) {
-                addField(f);
+        if (addMethods.isEmpty() && removedMethods.isEmpty()) {
+            methods = data.getMethodTable();
+        } else {
+            final List<MethodData> methodList = new ArrayList<MethodData>();
+            for (MethodData m : data.getMethods()) {
+                if (!removedMethods.contains(m)) {
+                    methodList.add(m);
+                }
             }
-        }
-
-        for (FieldData f : removedFields) {
-            addField(f);
-        }
-        for (FieldData f : addedFields) {
-            addField(f);
-        }
-
-        for (MethodData m : removedMethods) {
-            addMethod(m);
-        }
-
-        for (MethodData m : addMethods) {
-            addMethod(m);
-        }
-
-        for (String nm : methods.keySet()) {
-            for (String i : methods.get(nm).keySet()) {
-                methodSet.addAll(methods.get(nm).get(i));
+            methodList.addAll(removedMethods);
+            methodList.addAll(addMethods);
+            methods = MethodTable.of(methodList);
+        }
+        if (addedFields.isEmpty() && removedFields.isEmpty()) {
+            fields = data.getFieldTable();
+        } else {
+            final List<FieldData> fieldList = new ArrayList<FieldData>();
+            for (FieldData f : data.getFields()) {
+                if (!removedFields.contains(f)) {
+                    fieldList.add(f);
+                }
             }
+            fieldList.addAll(removedFields);
+            fieldList.addAll(addedFields);
+            fields = FieldTable.of(fieldList);
         }
     }
 
-    public MethodData getData(Method method) {
-        MethodData res = methodsByMethod.get(method);
-        if (res == NULL_METHOD_DATA) {
-            return null;
-        }
-        return res;
-    }
-
     ClassData(BaseClassData data) {
         className = data.getClassName();
         internalName = data.getInternalName();
         loader = data.getLoader();
         superClassName = data.getSuperClassName();
         replaceable = data.isReplaceable();
-        for (MethodData m : data.getMethods()) {
-            addMethod(m);
+        methods = data.getMethodTable();
+        fields = data.getFieldTable();
+        signitureModified = false;
+    }
+
+    public MethodData getData(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        if (declaringClass.getName().equals(className) && declaringClass.getClassLoader() == loader) {
+            return methods.getByDescriptor(method.getName(), DescriptorUtils.getDescriptor(method));
         }
-        for (FieldData f : data.getFields()) {
-            addField(f);
+        ClassData dta = ClassDataStore.instance().getModifiedClassData(declaringClass.getClassLoader(), declaringClass.getName());
+        if (dta == null) {
+            return null;
         }
-        signitureModified = false;
+        return dta.methods.getByDescriptor(method.getName(), DescriptorUtils.getDescriptor(method));
     }
 
     public boolean isSignitureModified() {
@@ -158,46 +149,12 @@ public class ClassData {
         return internalName;
     }
 
-    public void addMethod(MethodData data) {
-
-        if (!methods.containsKey(data.getMethodName())) {
-            methods.put(data.getMethodName(), new HashMap<String, Set<MethodData>>());
-        }
-        Map<String, Set<MethodData>> mts = methods.get(data.getMethodName());
-        if (!mts.containsKey(data.getArgumentDescriptor())) {
-            mts.put(data.getArgumentDescriptor(), new HashSet<MethodData>());
-        }
-        Set<MethodData> rr = mts.get(data.getArgumentDescriptor());
-        rr.add(data);
-
-    }
-
-    /**
-     * replaces a method if it already exists
-     *
-     * @param data
-     */
-    public void replaceMethod(MethodData data) {
-        if (!methods.containsKey(data.getMethodName())) {
-            methods.put(data.getMethodName(), new HashMap<String, Set<MethodData>>());
-        }
-        Map<String, Set<MethodData>> mts = methods.get(data.getMethodName());
-        Set<MethodData> rr = new HashSet<MethodData>();
-        mts.put(data.getArgumentDescriptor(), rr);
-        rr.add(data);
-
-    }
-
-    public void addField(FieldData data) {
-        fields.put(data.getName(), data);
-    }
-
     public Collection<MethodData> getMethods() {
-        return methodSet;
+        return methods.getMethods();
     }
 
     public Collection<FieldData> getFields() {
-        return fields.values();
+        return fields.getFields();
     }
 
     /**
@@ -210,35 +167,7 @@ public class ClassData {
      * @return
      */
     public MethodData getMethodData(String name, String arguments) {
-        Map<String, Set<MethodData>> r = methods.get(name);
-        if (r == null) {
-            return null;
-        }
-        Set<MethodData> ms = r.get(arguments);
-
-        if (ms == null) {
-            return null;
-        }
-        return ms.iterator().next();
-    }
-
-    private static class MethodResolver implements Function<Method, MethodData> {
-
-        public MethodData apply(Method from) {
-            ClassData dta = ClassDataStore.instance().getModifiedClassData(from.getDeclaringClass().getClassLoader(), from.getDeclaringClass().getName());
-            if (dta == null) {
-                return NULL_METHOD_DATA;
-            }
-            String descriptor = DescriptorUtils.getDescriptor(from);
-            for (MethodData m : dta.getMethods()) {
-                if (m.getMethodName().equals(from.getName()) && descriptor.equals(m.getDescriptor())) {
-                    return m;
-                }
-            }
-            return NULL_METHOD_DATA;
-
-        }
-
+        return methods.get(name, arguments);
     }
 
     public boolean isReplaceable() {
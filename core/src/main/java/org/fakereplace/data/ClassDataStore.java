@@ -20,16 +20,22 @@
 
 package org.fakereplace.data;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fakereplace.core.BuiltinClassData;
 import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.manip.util.MapFunction;
 import org.fakereplace.reflection.FieldAccessor;
+import org.fakereplace.util.DescriptorUtils;
 
 public class ClassDataStore {
 
@@ -42,6 +48,29 @@ public class ClassDataStore {
     private final Map<String, MethodData> proxyNameToMethodData = new ConcurrentHashMap<String, MethodData>();
     private final Set<Class<?>> replacedClasses = Collections.newSetFromMap(new MapMaker().weakKeys().<Class<?>, Boolean>makeMap());
 
+    private static final Method[] NO_METHODS = new Method[0];
+
+    /**
+     * incremented every time a class is replaced, so cached reflection data can tell when it may be stale
+     */
+    private final AtomicInteger replacementGeneration = new AtomicInteger();
+
+    /**
+     * methods that have had their final modifier removed, keyed by loader, then class name, then name + descriptor
+     */
+    private final Map<ClassLoader, ConcurrentMap<String, Set<String>>> definalisedMethods = new MapMaker().weakKeys().makeComputingMap(new MapFunction<ClassLoader, String, Set<String>>(false));
+
+    /**
+     * the definalised methods of a class, resolved the first time the modifiers of one of its methods are queried,
+     * and again whenever the class has been transformed with a different set of final methods
+     */
+    private final ClassValue<DefinalisedMethods> definalisedMethodCache = new ClassValue<DefinalisedMethods>() {
+        @Override
+        protected DefinalisedMethods computeValue(final Class<?> type) {
+            return new DefinalisedMethods();
+        }
+    };
+
     /**
      * takes the place of the null key on ConcurrentHashMap
      */
@@ -54,12 +83,57 @@ public class ClassDataStore {
 
     public void markClassReplaced(Class<?> clazz) {
         replacedClasses.add(clazz);
+        replacementGeneration.incrementAndGet();
+    }
+
+    public int getReplacementGeneration() {
+        return replacementGeneration.get();
     }
 
     public boolean isClassReplaced(Class<?> clazz) {
         return replacedClasses.contains(clazz);
     }
 
+    /**
+     * Records the methods of a class that have had their final modifier removed, so reflection can still report
+     * them as final. This replaces the methods recorded for a previous version of the class.
+     *
+     * @param methods the name + descriptor of each definalised method
+     */
+    public void setDefinalisedMethods(ClassLoader loader, String className, Set<String> methods) {
+        className = className.replace('/', '.');
+        if (loader == null) {
+            loader = NULL_LOADER;
+        }
+        final ConcurrentMap<String, Set<String>> map = definalisedMethods.get(loader);
+        if (methods.isEmpty()) {
+            map.remove(className);
+        } else {
+            map.put(className, Collections.unmodifiableSet(new HashSet<String>(methods)));
+        }
+    }
+
+    public boolean isMethodDefinalised(ClassLoader loader, String className, String methodName, String descriptor) {
+        className = className.replace('/', '.');
+        if (loader == null) {
+            loader = NULL_LOADER;
+        }
+        final Set<String> methods = definalisedMethods.get(loader).get(className);
+        return methods != null && methods.contains(methodName + descriptor);
+    }
+
+    public boolean isMethodDefinalised(Method method) {
+        final Class<?> type = method.getDeclaringClass();
+        final ClassLoader loader = type.getClassLoader() == null ? NULL_LOADER : type.getClassLoader();
+        final Set<String> current = definalisedMethods.get(loader).get(type.getName());
+        for (Method m : definalisedMethodCache.get(type).get(type, current)) {
+            if (m.equals(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void saveClassData(ClassLoader loader, String className, ClassDataBuilder data) {
         className = className.replace('/', '.');
         if (loader == null) {
@@ -129,6 +203,32 @@ public class ClassDataStore {
         return cd;
     }
 
+    /**
+     * Returns the data that has been recorded for a class visible from the given loader, without loading the class
+     * or computing data for it. This is safe to call from inside a transformer.
+     */
+    /**
+     * @return the class loaders that class data has been recorded for, not including the bootstrap loader
+     */
+    public Set<ClassLoader> getClassLoaders() {
+        final Set<ClassLoader> ret = new HashSet<ClassLoader>(baseClassData.keySet());
+        ret.remove(NULL_LOADER);
+        return ret;
+    }
+
+    public BaseClassData getRecordedBaseClassData(ClassLoader loader, String className) {
+        className = className.replace('/', '.');
+        ClassLoader current = loader;
+        while (current != null) {
+            final BaseClassData data = baseClassData.get(current).get(className);
+            if (data != null) {
+                return data;
+            }
+            current = current.getParent();
+        }
+        return baseClassData.get(NULL_LOADER).get(className);
+    }
+
     public Class<?> getRealClassFromProxyName(String proxyName) {
         return proxyNameToReplacedClass.get(proxyName);
     }
@@ -153,6 +253,39 @@ public class ClassDataStore {
         return proxyNameToFieldAccessor.get(proxyName);
     }
 
+    /**
+     * The resolved definalised methods of a class, along with the recorded set they were resolved from. A new set
+     * is recorded each time the class is transformed, so a change in identity means the methods must be resolved
+     * again.
+     */
+    private static final class DefinalisedMethods {
+        private volatile Set<String> source;
+        private volatile Method[] methods = NO_METHODS;
+
+        Method[] get(final Class<?> type, final Set<String> current) {
+            if (current == source) {
+                return methods;
+            }
+            synchronized (this) {
+                if (current != source) {
+                    if (current == null) {
+                        methods = NO_METHODS;
+                    } else {
+                        final List<Method> result = new ArrayList<Method>(current.size());
+                        for (Method method : type.getDeclaredMethods()) {
+                            if (current.contains(method.getName() + DescriptorUtils.getDescriptor(method))) {
+                                result.add(method);
+                            }
+                        }
+                        methods = result.toArray(new Method[result.size()]);
+                    }
+                    source = current;
+                }
+                return methods;
+            }
+        }
+    }
+
     public static ClassDataStore instance() {
         return INSTANCE;
     }
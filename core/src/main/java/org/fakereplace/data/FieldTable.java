@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact immutable table of the fields of a class, held in an array sorted by name.
+ */
+final class FieldTable {
+
+    static final FieldTable EMPTY = new FieldTable(new FieldData[0]);
+
+    private static final Comparator<FieldData> COMPARATOR = new Comparator<FieldData>() {
+        @Override
+        public int compare(final FieldData o1, final FieldData o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final FieldData[] fields;
+
+    private final Collection<FieldData> view;
+
+    private FieldTable(final FieldData[] fields) {
+        this.fields = fields;
+        this.view = Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    /**
+     * Creates a table from the given fields. If more than one field has the same name the last one wins.
+     */
+    static FieldTable of(final Collection<FieldData> fields) {
+        if (fields.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<String, FieldData> byName = new LinkedHashMap<String, FieldData>();
+        for (FieldData field : fields) {
+            byName.put(field.getName(), field);
+        }
+        final FieldData[] array = byName.values().toArray(new FieldData[byName.size()]);
+        Arrays.sort(array, COMPARATOR);
+        return new FieldTable(array);
+    }
+
+    FieldData get(final String name) {
+        int low = 0;
+        int high = fields.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = fields[mid].getName().compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return fields[mid];
+            }
+        }
+        return null;
+    }
+
+    Collection<FieldData> getFields() {
+        return view;
+    }
+}
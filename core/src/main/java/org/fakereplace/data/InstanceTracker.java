@@ -20,40 +20,144 @@
 
 package org.fakereplace.data;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
-import org.fakereplace.com.google.common.collect.MapMaker;
-
 /**
  * This class is responsible for tracking instances of certain classes as they
  * are loaded
+ * <p/>
+ * Instrumented constructors call {@link #add(int, Object)} with a handle that is resolved
+ * when the class is transformed, so registering an instance does not need a map lookup.
+ * Instances are staged in striped buffers of weak references, the stripe is chosen by
+ * thread so concurrent constructors rarely contend. {@link #get(String)} returns a
+ * snapshot of the live instances.
  *
  * @author stuart
  */
 public class InstanceTracker {
 
-    private static ConcurrentMap<String, Set<Object>> data = new ConcurrentHashMap<String, Set<Object>>();
+    private static final int STRIPES = stripeCount();
 
-    public static void add(String type, Object object) {
-        Set<Object> set = data.get(type);
-        if(set == null) {
-            set = Collections.newSetFromMap(new MapMaker().weakKeys().<Object, Boolean>makeMap());
-            Set<Object> existing = data.putIfAbsent(type, set);
-            if(existing != null) {
-                set = existing;
+    private static final ConcurrentMap<String, Tracker> trackersByName = new ConcurrentHashMap<String, Tracker>();
+
+    private static volatile Tracker[] trackers = new Tracker[0];
+
+    /**
+     * Returns the handle for the given type, creating it if required. This is called at transform time
+     * and the result is embedded into the instrumented constructors.
+     */
+    public static int handle(String type) {
+        Tracker tracker = trackersByName.get(type);
+        if (tracker == null) {
+            synchronized (InstanceTracker.class) {
+                tracker = trackersByName.get(type);
+                if (tracker == null) {
+                    final Tracker[] old = trackers;
+                    final Tracker[] newTrackers = new Tracker[old.length + 1];
+                    System.arraycopy(old, 0, newTrackers, 0, old.length);
+                    tracker = new Tracker(old.length);
+                    newTrackers[old.length] = tracker;
+                    trackers = newTrackers;
+                    trackersByName.put(type, tracker);
+                }
             }
         }
-        set.add(object);
+        return tracker.handle;
+    }
+
+    public static void add(int handle, Object object) {
+        trackers[handle].add(object);
+    }
+
+    public static void add(String type, Object object) {
+        add(handle(type), object);
     }
 
+    /**
+     * @return a snapshot of the live instances of the given type
+     */
     public static Set<?> get(String type) {
-        final Set<Object> result =  data.get(type);
-        if(result != null) {
-            return result;
+        final Tracker tracker = trackersByName.get(type);
+        if (tracker != null) {
+            return tracker.snapshot();
         }
         return Collections.emptySet();
     }
+
+    private static int stripeCount() {
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors() * 2) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    private static final class Tracker {
+
+        private static final int MIN_PURGE_SIZE = 64;
+
+        private final int handle;
+        private final Stripe[] stripes;
+
+        private Tracker(final int handle) {
+            this.handle = handle;
+            this.stripes = new Stripe[STRIPES];
+            for (int i = 0; i < STRIPES; ++i) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        void add(final Object object) {
+            final Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+            synchronized (stripe) {
+                stripe.references.add(new WeakReference<Object>(object));
+                if (stripe.references.size() >= stripe.purgeSize) {
+                    stripe.purge();
+                }
+            }
+        }
+
+        Set<Object> snapshot() {
+            final Set<Object> result = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (final Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    for (final WeakReference<Object> reference : stripe.references) {
+                        final Object value = reference.get();
+                        if (value != null) {
+                            result.add(value);
+                        }
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(result);
+        }
+    }
+
+    /**
+     * Buffer of weak references. Cleared references are removed once the buffer doubles in size
+     * since the last purge, so the cost of purging is amortized over the inserts.
+     */
+    private static final class Stripe {
+
+        private List<WeakReference<Object>> references = new ArrayList<WeakReference<Object>>();
+        private int purgeSize = Tracker.MIN_PURGE_SIZE;
+
+        void purge() {
+            final List<WeakReference<Object>> live = new ArrayList<WeakReference<Object>>(references.size());
+            for (final WeakReference<Object> reference : references) {
+                if (reference.get() != null) {
+                    live.add(reference);
+                }
+            }
+            references = live;
+            purgeSize = Math.max(Tracker.MIN_PURGE_SIZE, live.size() * 2);
+        }
+    }
 }
@@ -20,6 +20,7 @@
 
 package org.fakereplace.data;
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 
@@ -59,11 +60,19 @@ public class MethodData {
 
     private final boolean finalMethod;
 
+    /**
+     * the last result of {@link #getMethodToInvoke(Class)}, this is called on every reflective invocation
+     * of an added method so it is worth keeping around. It is only softly referenced so it does not stop
+     * the class it belongs to from being unloaded.
+     */
+    private volatile ResolvedMethod resolvedMethod;
+
     public MethodData(String name, String descriptor, String className, MemberType type, int accessFlags, boolean finalMethod) {
-        this.methodName = name;
-        this.descriptor = descriptor;
-        this.returnTypeDescriptor = DescriptorUtils.getReturnType(descriptor);
-        this.argumentDescriptor = DescriptorUtils.getArgumentString(descriptor);
+        // names and descriptors are shared between many classes, so they are interned to save memory
+        this.methodName = name.intern();
+        this.descriptor = descriptor.intern();
+        this.returnTypeDescriptor = DescriptorUtils.getReturnType(descriptor).intern();
+        this.argumentDescriptor = DescriptorUtils.getArgumentString(descriptor).intern();
         this.className = className;
         this.type = type;
         this.accessFlags = accessFlags;
@@ -72,10 +81,10 @@ public class MethodData {
     }
 
     public MethodData(String name, String descriptor, String className, MemberType type, int accessFlags, int methodNo) {
-        this.methodName = name;
-        this.descriptor = descriptor;
-        this.returnTypeDescriptor = DescriptorUtils.getReturnType(descriptor);
-        this.argumentDescriptor = DescriptorUtils.getArgumentString(descriptor);
+        this.methodName = name.intern();
+        this.descriptor = descriptor.intern();
+        this.returnTypeDescriptor = DescriptorUtils.getReturnType(descriptor).intern();
+        this.argumentDescriptor = DescriptorUtils.getArgumentString(descriptor).intern();
         this.className = className;
         this.type = type;
         this.accessFlags = accessFlags;
@@ -145,6 +154,20 @@ public class MethodData {
     }
 
     public Method getMethodToInvoke(Class<?> actualClass) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
+        final int generation = ClassDataStore.instance().getReplacementGeneration();
+        final ResolvedMethod resolved = resolvedMethod;
+        if (resolved != null && resolved.generation == generation) {
+            final Method method = resolved.get();
+            if (method != null && method.getDeclaringClass() == actualClass) {
+                return method;
+            }
+        }
+        final Method method = lookupMethodToInvoke(actualClass);
+        resolvedMethod = new ResolvedMethod(method, generation);
+        return method;
+    }
+
+    private Method lookupMethodToInvoke(Class<?> actualClass) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
         Class<?>[] methodDesc;
         if (type == MemberType.FAKE && !isStatic()) {
             methodDesc = DescriptorUtils.argumentStringToClassArray(descriptor, actualClass);
@@ -186,4 +209,13 @@ public class MethodData {
     public boolean isConstructor() {
         return methodName.equals("<init>");
     }
+
+    private static final class ResolvedMethod extends SoftReference<Method> {
+        private final int generation;
+
+        private ResolvedMethod(final Method method, final int generation) {
+            super(method);
+            this.generation = generation;
+        }
+    }
 }
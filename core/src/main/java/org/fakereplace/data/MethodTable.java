@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Compact immutable table of the methods of a class.
+ * <p/>
+ * Methods are held in an array sorted by name and argument descriptor, and are looked up with a
+ * binary search. Method names and descriptors are interned by {@link MethodData}, so the table
+ * holds no copies of them.
+ */
+final class MethodTable {
+
+    static final MethodTable EMPTY = new MethodTable(new MethodData[0]);
+
+    private static final Comparator<MethodData> COMPARATOR = new Comparator<MethodData>() {
+        @Override
+        public int compare(final MethodData o1, final MethodData o2) {
+            return MethodTable.compare(o1, o2.getMethodName(), o2.getArgumentDescriptor());
+        }
+    };
+
+    private final MethodData[] methods;
+
+    private final Collection<MethodData> view;
+
+    private MethodTable(final MethodData[] methods) {
+        this.methods = methods;
+        this.view = Collections.unmodifiableList(Arrays.asList(methods));
+    }
+
+    /**
+     * Creates a table from the given methods. If a method is present more than once only the first
+     * occurrence is kept.
+     */
+    static MethodTable of(final Collection<MethodData> methods) {
+        if (methods.isEmpty()) {
+            return EMPTY;
+        }
+        final Set<MethodData> unique = new LinkedHashSet<MethodData>(methods);
+        final MethodData[] array = unique.toArray(new MethodData[unique.size()]);
+        // the sort is stable, so the first method with a given signature stays first
+        Arrays.sort(array, COMPARATOR);
+        return new MethodTable(array);
+    }
+
+    /**
+     * returns the first method with the given name and argument descriptor, or null
+     */
+    MethodData get(final String name, final String argumentDescriptor) {
+        final int index = firstIndex(name, argumentDescriptor);
+        return index < 0 ? null : methods[index];
+    }
+
+    /**
+     * returns the first method with the given name and full descriptor, or null
+     */
+    MethodData getByDescriptor(final String name, final String descriptor) {
+        final String argumentDescriptor = descriptor.substring(0, descriptor.lastIndexOf(')') + 1);
+        int index = firstIndex(name, argumentDescriptor);
+        if (index < 0) {
+            return null;
+        }
+        for (; index < methods.length && compare(methods[index], name, argumentDescriptor) == 0; ++index) {
+            if (methods[index].getDescriptor().equals(descriptor)) {
+                return methods[index];
+            }
+        }
+        return null;
+    }
+
+    Collection<MethodData> getMethods() {
+        return view;
+    }
+
+    private int firstIndex(final String name, final String argumentDescriptor) {
+        int low = 0;
+        int high = methods.length - 1;
+        int found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(methods[mid], name, argumentDescriptor);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                if (cmp == 0) {
+                    found = mid;
+                }
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static int compare(final MethodData method, final String name, final String argumentDescriptor) {
+        final String methodName = method.getMethodName();
+        if (methodName != name) {
+            final int cmp = methodName.compareTo(name);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        final String methodArguments = method.getArgumentDescriptor();
+        if (methodArguments == argumentDescriptor) {
+            return 0;
+        }
+        return methodArguments.compareTo(argumentDescriptor);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.data;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.Descriptor;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.ParameterAnnotationsAttribute;
+import javassist.bytecode.annotation.Annotation;
+import org.fakereplace.com.google.common.collect.MapMaker;
+import org.fakereplace.util.DescriptorUtils;
+
+/**
+ * Stores the visible annotation attributes of replaceable classes as they were when the class was first
+ * loaded.
+ * <p/>
+ * When a class is redefined its annotations have to be reverted to the original ones. Copying the original
+ * attributes into the new constant pool is much cheaper than rebuilding them reflectively from the live
+ * annotation instances. The attributes are held against a private constant pool per class, that only
+ * contains the entries the annotations need.
+ */
+public class OriginalAnnotationStore {
+
+    private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, ClassAnnotations>> store = new MapMaker().weakKeys().makeMap();
+
+    private static final ClassAnnotations NO_ANNOTATIONS = new ClassAnnotations();
+
+    private OriginalAnnotationStore() {
+
+    }
+
+    /**
+     * Records the annotations of a class that is being loaded for the first time. This must be called before
+     * the class file is modified.
+     */
+    public static void recordOriginalAnnotations(ClassLoader loader, ClassFile file) {
+        if (loader == null) {
+            return;
+        }
+        ConcurrentMap<String, ClassAnnotations> loaderStore = store.get(loader);
+        if (loaderStore == null) {
+            loaderStore = new ConcurrentHashMap<String, ClassAnnotations>();
+            final ConcurrentMap<String, ClassAnnotations> existing = store.putIfAbsent(loader, loaderStore);
+            if (existing != null) {
+                loaderStore = existing;
+            }
+        }
+        loaderStore.put(file.getName(), createClassAnnotations(file));
+    }
+
+    /**
+     * @return a copy of the original class annotations in the given constant pool, or null if they were not recorded
+     */
+    public static AnnotationsAttribute getClassAnnotations(Class<?> clazz, ConstPool cp) {
+        final ClassAnnotations annotations = get(clazz);
+        if (annotations == null) {
+            return null;
+        }
+        return copy(annotations.pool, annotations.classAnnotations, cp);
+    }
+
+    public static AnnotationsAttribute getFieldAnnotations(Field field, ConstPool cp) {
+        final ClassAnnotations annotations = get(field.getDeclaringClass());
+        if (annotations == null) {
+            return null;
+        }
+        return copy(annotations.pool, annotations.fieldAnnotations.get(field.getName()), cp);
+    }
+
+    public static AnnotationsAttribute getMethodAnnotations(Method method, ConstPool cp) {
+        final ClassAnnotations annotations = get(method.getDeclaringClass());
+        if (annotations == null) {
+            return null;
+        }
+        return copy(annotations.pool, annotations.methodAnnotations.get(method.getName() + DescriptorUtils.getDescriptor(method)), cp);
+    }
+
+    public static AnnotationsAttribute getConstructorAnnotations(Constructor<?> constructor, ConstPool cp) {
+        final ClassAnnotations annotations = get(constructor.getDeclaringClass());
+        if (annotations == null) {
+            return null;
+        }
+        return copy(annotations.pool, annotations.methodAnnotations.get("<init>" + DescriptorUtils.getDescriptor(constructor)), cp);
+    }
+
+    public static ParameterAnnotationsAttribute getMethodParameterAnnotations(Method method, ConstPool cp) {
+        final ClassAnnotations annotations = get(method.getDeclaringClass());
+        if (annotations == null) {
+            return null;
+        }
+        final String descriptor = DescriptorUtils.getDescriptor(method);
+        return copy(annotations.pool, annotations.parameterAnnotations.get(method.getName() + descriptor), descriptor, cp);
+    }
+
+    public static ParameterAnnotationsAttribute getConstructorParameterAnnotations(Constructor<?> constructor, ConstPool cp) {
+        final ClassAnnotations annotations = get(constructor.getDeclaringClass());
+        if (annotations == null) {
+            return null;
+        }
+        final String descriptor = DescriptorUtils.getDescriptor(constructor);
+        return copy(annotations.pool, annotations.parameterAnnotations.get("<init>" + descriptor), descriptor, cp);
+    }
+
+    private static ClassAnnotations get(Class<?> clazz) {
+        if (clazz.getClassLoader() == null) {
+            return null;
+        }
+        final Map<String, ClassAnnotations> loaderStore = store.get(clazz.getClassLoader());
+        if (loaderStore == null) {
+            return null;
+        }
+        return loaderStore.get(clazz.getName());
+    }
+
+    private static AnnotationsAttribute copy(ConstPool pool, AnnotationsAttribute attribute, ConstPool cp) {
+        if (attribute == null) {
+            return new AnnotationsAttribute(cp, AnnotationsAttribute.visibleTag);
+        }
+        synchronized (pool) {
+            return (AnnotationsAttribute) attribute.copy(cp, null);
+        }
+    }
+
+    private static ParameterAnnotationsAttribute copy(ConstPool pool, ParameterAnnotationsAttribute attribute, String descriptor, ConstPool cp) {
+        if (attribute == null) {
+            final ParameterAnnotationsAttribute ret = new ParameterAnnotationsAttribute(cp, ParameterAnnotationsAttribute.visibleTag);
+            ret.setAnnotations(new Annotation[Descriptor.numOfParameters(descriptor)][0]);
+            return ret;
+        }
+        synchronized (pool) {
+            return (ParameterAnnotationsAttribute) attribute.copy(cp, null);
+        }
+    }
+
+    private static ClassAnnotations createClassAnnotations(ClassFile file) {
+        final ConstPool pool = new ConstPool(file.getName());
+        final ClassAnnotations ret = new ClassAnnotations(pool);
+        boolean found = false;
+        final AnnotationsAttribute classAnnotations = (AnnotationsAttribute) file.getAttribute(AnnotationsAttribute.visibleTag);
+        if (classAnnotations != null) {
+            ret.classAnnotations = (AnnotationsAttribute) classAnnotations.copy(pool, null);
+            found = true;
+        }
+        for (Object o : file.getFields()) {
+            final FieldInfo field = (FieldInfo) o;
+            final AnnotationsAttribute annotations = (AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.visibleTag);
+            if (annotations != null) {
+                ret.fieldAnnotations.put(field.getName(), (AnnotationsAttribute) annotations.copy(pool, null));
+                found = true;
+            }
+        }
+        for (Object o : file.getMethods()) {
+            final MethodInfo method = (MethodInfo) o;
+            final String key = method.getName() + method.getDescriptor();
+            final AnnotationsAttribute annotations = (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag);
+            if (annotations != null) {
+                ret.methodAnnotations.put(key, (AnnotationsAttribute) annotations.copy(pool, null));
+                found = true;
+            }
+            final ParameterAnnotationsAttribute parameterAnnotations = (ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.visibleTag);
+            if (parameterAnnotations != null) {
+                ret.parameterAnnotations.put(key, (ParameterAnnotationsAttribute) parameterAnnotations.copy(pool, null));
+                found = true;
+            }
+        }
+        return found ? ret : NO_ANNOTATIONS;
+    }
+
+    private static final class ClassAnnotations {
+        private final ConstPool pool;
+        private AnnotationsAttribute classAnnotations;
+        private final Map<String, AnnotationsAttribute> fieldAnnotations = new HashMap<String, AnnotationsAttribute>();
+        private final Map<String, AnnotationsAttribute> methodAnnotations = new HashMap<String, AnnotationsAttribute>();
+        private final Map<String, ParameterAnnotationsAttribute> parameterAnnotations = new HashMap<String, ParameterAnnotationsAttribute>();
+
+        private ClassAnnotations() {
+            this.pool = new ConstPool("java.lang.Object");
+        }
+
+        private ClassAnnotations(ConstPool pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.logging;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fakereplace.core.AgentOption;
+import org.fakereplace.core.AgentOptions;
+
+/**
+ * Log manager that hands messages off to a background writer thread through a bounded lock free ring buffer,
+ * so logging never blocks the thread that is doing the replacement on a slow stdout or disk.
+ * <p/>
+ * The level and destination are taken from the log agent option, which has the form <code>level</code> or
+ * <code>level:/path/to/file</code>. If a file is given output goes to a rolling log file instead of stdout.
+ * <p/>
+ * If the writer falls so far behind that the buffer fills up trace and debug messages are dropped rather than
+ * blocking, and the number of dropped messages is reported once the writer catches up. Info and error messages
+ * wait up to {@link #MAX_WAIT_NANOS} for space before they are dropped as well. If the writer thread has died
+ * it is restarted once the buffer is full.
+ */
+class AsyncLogManager implements LogManager {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final long MAX_PARK_NANOS = 100 * 1000 * 1000;
+
+    private static final long MAX_WAIT_NANOS = 1000 * 1000 * 1000;
+
+    private static final long WAIT_PARK_NANOS = 1000 * 1000;
+
+    private final Level level;
+
+    private final LogOutput output;
+
+    private final AtomicReferenceArray<Entry> buffer = new AtomicReferenceArray<Entry>(BUFFER_SIZE);
+
+    /**
+     * The next slot to be claimed by a producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next slot to be read by the writer, only ever written by the writer thread
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicBoolean writerParked = new AtomicBoolean();
+
+    private volatile Thread writer;
+
+    AsyncLogManager() {
+        final String option = AgentOptions.getOption(AgentOption.LOG);
+        String levelString = option;
+        String file = null;
+        if (option != null) {
+            final int index = option.indexOf(':');
+            if (index != -1) {
+                levelString = option.substring(0, index);
+                file = option.substring(index + 1);
+            }
+        }
+        Level level = Level.INFO;
+        if (levelString != null && !levelString.isEmpty()) {
+            try {
+                level = Level.valueOf(levelString.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Could not find level " + levelString + " options are " + Arrays.asList(Level.values()));
+            }
+        }
+        this.level = level;
+        LogOutput output = ConsoleLogOutput.INSTANCE;
+        if (file != null && !file.isEmpty()) {
+            try {
+                output = new RollingFileLogOutput(file);
+            } catch (IOException e) {
+                System.err.println("Could not open log file " + file + " logging to stdout instead");
+                e.printStackTrace();
+            }
+        }
+        this.output = output;
+
+        startWriter();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Fakereplace Log Shutdown"));
+    }
+
+    @Override
+    public void error(final Class<?> category, final String message) {
+        log(Level.ERROR, category, message, null);
+    }
+
+    @Override
+    public void error(final Class<?> category, final String message, final Throwable cause) {
+        log(Level.ERROR, category, message, cause);
+    }
+
+    @Override
+    public void info(final Class<?> category, final String message) {
+        log(Level.INFO, category, message, null);
+    }
+
+    @Override
+    public void info(final Class<?> category, final String message, final Throwable cause) {
+        log(Level.INFO, category, message, cause);
+    }
+
+    @Override
+    public void debug(final Class<?> category, final String message) {
+        log(Level.DEBUG, category, message, null);
+    }
+
+    @Override
+    public void debug(final Class<?> category, final String message, final Throwable cause) {
+        log(Level.DEBUG, category, message, cause);
+    }
+
+    @Override
+    public void trace(final Class<?> category, final String message) {
+        log(Level.TRACE, category, message, null);
+    }
+
+    @Override
+    public void trace(final Class<?> category, final String message, final Throwable cause) {
+        log(Level.TRACE, category, message, cause);
+    }
+
+    @Override
+    public boolean isInfoEnabled(final Class<?> category) {
+        return enabled(Level.INFO);
+    }
+
+    @Override
+    public boolean isDebugEnabled(final Class<?> category) {
+        return enabled(Level.DEBUG);
+    }
+
+    @Override
+    public boolean isTraceEnabled(final Class<?> category) {
+        return enabled(Level.TRACE);
+    }
+
+    private boolean enabled(final Level messageLevel) {
+        return level.ordinal() <= messageLevel.ordinal();
+    }
+
+    private void log(final Level messageLevel, final Class<?> category, final String message, final Throwable cause) {
+        if (!enabled(messageLevel)) {
+            return;
+        }
+        final Entry entry = new Entry(System.currentTimeMillis(), messageLevel, category.getName(), message, cause);
+        long waitStart = 0;
+        for (; ; ) {
+            final long slot = tail.get();
+            if (slot - head.get() >= BUFFER_SIZE) {
+                if (messageLevel.ordinal() < Level.INFO.ordinal()) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                //info and error messages wait a bounded time for the writer to make room
+                if (waitStart == 0) {
+                    waitStart = System.nanoTime();
+                    ensureWriterRunning();
+                } else if (System.nanoTime() - waitStart > MAX_WAIT_NANOS) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                wakeWriter();
+                LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+                continue;
+            }
+            if (tail.compareAndSet(slot, slot + 1)) {
+                buffer.set((int) (slot & (BUFFER_SIZE - 1)), entry);
+                break;
+            }
+        }
+        wakeWriter();
+    }
+
+    private synchronized void startWriter() {
+        final Thread thread = new Thread(new Writer());
+        thread.setDaemon(true);
+        thread.setName("Fakereplace Log Writer");
+        writer = thread;
+        thread.start();
+    }
+
+    private void ensureWriterRunning() {
+        if (!writer.isAlive()) {
+            synchronized (this) {
+                if (!writer.isAlive()) {
+                    System.err.println("Fakereplace log writer has stopped, restarting it");
+                    startWriter();
+                }
+            }
+        }
+    }
+
+    private void wakeWriter() {
+        if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Writes out everything that is currently in the buffer. Only the writer thread and the shutdown hook call
+     * this, and the shutdown hook only runs once the writer is no longer doing anything useful.
+     *
+     * @return <code>true</code> if anything was written
+     */
+    private synchronized boolean drain() {
+        boolean written = false;
+        long current = head.get();
+        while (current < tail.get()) {
+            final int index = (int) (current & (BUFFER_SIZE - 1));
+            Entry entry = buffer.get(index);
+            while (entry == null) {
+                //the slot has been claimed but the producer has not published the entry yet
+                Thread.yield();
+                entry = buffer.get(index);
+            }
+            buffer.set(index, null);
+            head.lazySet(++current);
+            write(entry.format(output.isTimestamped()));
+            written = true;
+        }
+        final long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            write("[" + AsyncLogManager.class.getName() + "] ERROR " + lost + " messages were dropped as the log buffer was full");
+            written = true;
+        }
+        if (written) {
+            try {
+                output.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return written;
+    }
+
+    private void write(final String line) {
+        try {
+            output.write(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            for (; ; ) {
+                if (!drain()) {
+                    writerParked.set(true);
+                    //check again, a producer may have published before it could see the flag
+                    if (head.get() == tail.get()) {
+                        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                    }
+                    writerParked.set(false);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final long timestamp;
+        private final Level level;
+        private final String category;
+        private final String message;
+        private final Throwable cause;
+
+        private Entry(final long timestamp, final Level level, final String category, final String message, final Throwable cause) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.category = category;
+            this.message = message;
+            this.cause = cause;
+        }
+
+        String format(final boolean includeTimestamp) {
+            final StringWriter result = new StringWriter();
+            if (includeTimestamp) {
+                result.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(new Date(timestamp)));
+                result.append(' ');
+            }
+            result.append('[').append(category).append("] ").append(level.name()).append(' ').append(message);
+            if (cause != null) {
+                result.append(System.getProperty("line.separator"));
+                final PrintWriter writer = new PrintWriter(result);
+                cause.printStackTrace(writer);
+                writer.flush();
+            }
+            return result.toString();
+        }
+    }
+
+    private static final class ConsoleLogOutput implements LogOutput {
+
+        static final ConsoleLogOutput INSTANCE = new ConsoleLogOutput();
+
+        @Override
+        public void write(final String line) {
+            System.out.println(line);
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+        }
+
+        @Override
+        public boolean isTimestamped() {
+            return false;
+        }
+    }
+}
@@ -38,4 +38,10 @@ public interface LogManager {
 
     void trace(Class<?> category, String message);
     void trace(Class<?> category, String message, Throwable cause);
+
+    boolean isInfoEnabled(Class<?> category);
+
+    boolean isDebugEnabled(Class<?> category);
+
+    boolean isTraceEnabled(Class<?> category);
 }
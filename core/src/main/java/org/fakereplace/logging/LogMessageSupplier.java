@@ -18,12 +18,14 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-package org.fakereplace.data;
+package org.fakereplace.logging;
 
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-
-@Retention(RetentionPolicy.RUNTIME)
-public @interface ModifiedMethod {
+/**
+ * Lazily builds a log message, so the cost of building it is only paid if the level is enabled.
+ *
+ * @author Stuart Douglas
+ */
+public interface LogMessageSupplier {
 
+    String get();
 }
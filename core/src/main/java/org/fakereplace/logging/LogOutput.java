@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.logging;
+
+import java.io.IOException;
+
+/**
+ * Destination for formatted log lines. Only ever called from a single thread at a time.
+ */
+interface LogOutput {
+
+    void write(String line) throws IOException;
+
+    void flush() throws IOException;
+
+    /**
+     * @return <code>true</code> if lines written to this output should be prefixed with a timestamp
+     */
+    boolean isTimestamped();
+}
@@ -21,8 +21,9 @@
 package org.fakereplace.logging;
 
 /**
- * Logging class, at the moment just writes to stdout. Using java.util.logging is problematic from a javaagent,
- * and as fakereplace should never be used in production this is all that is required.
+ * Logging class, messages are handed off to a background thread that writes them to stdout or a log file. Using
+ * java.util.logging is problematic from a javaagent, and as fakereplace should never be used in production this is
+ * all that is required.
  *
  * @author stuart
  */
@@ -30,7 +31,7 @@ public class Logger {
 
     private static final String TRACE = "trace";
 
-    private static volatile LogManager logManager = new DefaultLogManager();
+    private static volatile LogManager logManager = new AsyncLogManager();
 
     public Logger(final Class<?> clazz) {
         this.clazz = clazz;
@@ -73,4 +74,55 @@ public class Logger {
     public void trace(final String message, Throwable cause) {
         logManager.trace(clazz, message, cause);
     }
+
+    public void debug(final LogMessageSupplier message) {
+        if (logManager.isDebugEnabled(clazz)) {
+            logManager.debug(clazz, message.get());
+        }
+    }
+
+    public void trace(final LogMessageSupplier message) {
+        if (logManager.isTraceEnabled(clazz)) {
+            logManager.trace(clazz, message.get());
+        }
+    }
+
+    public boolean isInfoEnabled() {
+        return logManager.isInfoEnabled(clazz);
+    }
+
+    public boolean isDebugEnabled() {
+        return logManager.isDebugEnabled(clazz);
+    }
+
+    public boolean isTraceEnabled() {
+        return logManager.isTraceEnabled(clazz);
+    }
+
+    /**
+     * Logs a structured event at info level, in the form <code>event=name key1=value1 key2=value2</code>.
+     * Values that contain whitespace are quoted.
+     *
+     * @param name      The event name
+     * @param keyValues alternating keys and values
+     */
+    public void event(final String name, final Object... keyValues) {
+        if (!logManager.isInfoEnabled(clazz)) {
+            return;
+        }
+        final StringBuilder builder = new StringBuilder("event=");
+        builder.append(name);
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            builder.append(' ');
+            builder.append(keyValues[i]);
+            builder.append('=');
+            final String value = String.valueOf(keyValues[i + 1]);
+            if (value.isEmpty() || value.indexOf(' ') != -1 || value.indexOf('\t') != -1) {
+                builder.append('"').append(value.replace("\"", "\\\"")).append('"');
+            } else {
+                builder.append(value);
+            }
+        }
+        logManager.info(clazz, builder.toString());
+    }
 }
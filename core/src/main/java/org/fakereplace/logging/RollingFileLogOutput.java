@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Log output that writes to a file, rolling it over to file.1, file.2 etc once it gets too big.
+ */
+class RollingFileLogOutput implements LogOutput {
+
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    private static final int MAX_BACKUPS = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final File file;
+
+    private Writer writer;
+
+    private long size;
+
+    RollingFileLogOutput(final String fileName) throws IOException {
+        this.file = new File(fileName).getAbsoluteFile();
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        open();
+    }
+
+    @Override
+    public void write(final String line) throws IOException {
+        final byte[] bytes = (line + LINE_SEPARATOR).getBytes(UTF_8);
+        if (size > 0 && size + bytes.length > MAX_SIZE) {
+            roll();
+        }
+        writer.write(line);
+        writer.write(LINE_SEPARATOR);
+        size += bytes.length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public boolean isTimestamped() {
+        return true;
+    }
+
+    private void open() throws IOException {
+        size = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        new File(file.getPath() + "." + MAX_BACKUPS).delete();
+        for (int i = MAX_BACKUPS - 1; i > 0; --i) {
+            final File backup = new File(file.getPath() + "." + i);
+            if (backup.exists()) {
+                backup.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+        }
+        file.renameTo(new File(file.getPath() + ".1"));
+        open();
+    }
+}
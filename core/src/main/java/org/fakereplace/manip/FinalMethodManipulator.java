@@ -20,19 +20,17 @@
 
 package org.fakereplace.manip;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import javassist.bytecode.AccessFlag;
-import javassist.bytecode.AnnotationsAttribute;
-import javassist.bytecode.AttributeInfo;
 import javassist.bytecode.ClassFile;
 import javassist.bytecode.MethodInfo;
-import javassist.bytecode.annotation.Annotation;
-import org.fakereplace.core.Constants;
-import org.fakereplace.data.ModifiedMethod;
+import org.fakereplace.data.ClassDataStore;
 
 /**
- * manipulator that removes the final attribute from methods
+ * manipulator that removes the final attribute from methods. The methods are recorded
+ * in the {@link ClassDataStore} so reflection can still report them as final.
  *
  * @author Stuart Douglas <stuart.w.douglas@gmail.com>
  */
@@ -46,25 +44,17 @@ public class FinalMethodManipulator implements ClassManipulator {
         if (!modifiableClass) {
             return false;
         }
-        boolean modified = false;
-
+        final Set<String> definalised = new HashSet<String>();
         for (Object i : file.getMethods()) {
             MethodInfo m = (MethodInfo) i;
             if ((m.getAccessFlags() & AccessFlag.FINAL) != 0) {
                 m.setAccessFlags(m.getAccessFlags() & ~AccessFlag.FINAL);
-                // ClassDataStore.addFinalMethod(file.getName(), m.getName(),
-                // m.getDescriptor());
-                AnnotationsAttribute at = (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag);
-                if (at == null) {
-                    at = new AnnotationsAttribute(file.getConstPool(), AnnotationsAttribute.visibleTag);
-                    m.addAttribute(at);
-                }
-                at.addAnnotation(new Annotation(ModifiedMethod.class.getName(), file.getConstPool()));
-                m.addAttribute(new AttributeInfo(file.getConstPool(), Constants.FINAL_METHOD_ATTRIBUTE, new byte[0]));
-                modified = true;
+                definalised.add(m.getName() + m.getDescriptor());
             }
         }
-        return modified;
+        // this replaces whatever was recorded for the previous version of the class
+        ClassDataStore.instance().setDefinalisedMethods(loader, file.getName(), definalised);
+        return !definalised.isEmpty();
     }
 
 }
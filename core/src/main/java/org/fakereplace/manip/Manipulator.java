@@ -104,6 +104,10 @@ public class Manipulator {
         methodInvokationManipulator.replaceVirtualMethodInvokationWithStatic(oldClass, newClass, methodName, methodDesc, newStaticMethodDesc, classLoader);
     }
 
+    public void replaceAddedMethodInvokation(String oldClass, String newClass, String methodName, String methodDesc, String newStaticMethodDesc, ClassLoader classLoader) {
+        methodInvokationManipulator.replaceAddedMethodInvokation(oldClass, newClass, methodName, methodDesc, newStaticMethodDesc, classLoader);
+    }
+
     public void replaceVirtualMethodInvokationWithLocal(String oldClass, String methodName, String newMethodName, String methodDesc, String newStaticMethodDesc, ClassLoader classLoader) {
         methodInvokationManipulator.replaceVirtualMethodInvokationWithLocal(oldClass, methodName, newMethodName, methodDesc, newStaticMethodDesc, classLoader);
     }
@@ -32,6 +32,8 @@ import javassist.bytecode.ConstPool;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
 import org.fakereplace.logging.Logger;
+import org.fakereplace.manip.util.InvokeDynamicUtils;
+import org.fakereplace.reflection.MethodInvokeBootstrap;
 import org.fakereplace.util.JumpMarker;
 import org.fakereplace.util.JumpUtils;
 
@@ -44,6 +46,9 @@ import org.fakereplace.util.JumpUtils;
  * else
  * method.invoke
  * </code>
+ * <p/>
+ * For java 7 class files the call is replaced with an invokedynamic instruction instead, bound by
+ * {@link MethodInvokeBootstrap}, so no check is performed until fakereplace has generated a class.
  *
  * @author stuart
  */
@@ -63,6 +68,8 @@ public class MethodAccessManipulator implements ClassManipulator {
         Set<Integer> methodCallLocations = new HashSet<Integer>();
         Integer newCallLocation = null;
         Integer methodReflectionLocation = null;
+        final boolean invokeDynamic = InvokeDynamicUtils.isInvokeDynamicSupported(file);
+        int bootstrapIndex = -1;
         // first we need to scan the constant pool looking for
         // CONSTANT_method_info_ref structures
         ConstPool pool = file.getConstPool();
@@ -92,6 +99,9 @@ public class MethodAccessManipulator implements ClassManipulator {
         // this means we found an instance of the call, now we have to iterate
         // through the methods and replace instances of the call
         if (newCallLocation != null) {
+            if (invokeDynamic) {
+                bootstrapIndex = InvokeDynamicUtils.addBootstrapMethod(file, MethodInvokeBootstrap.class.getName(), MethodInvokeBootstrap.BOOTSTRAP_METHOD_NAME);
+            }
             List<MethodInfo> methods = file.getMethods();
             for (MethodInfo m : methods) {
                 try {
@@ -111,6 +121,14 @@ public class MethodAccessManipulator implements ClassManipulator {
                             // replacing
                             if (methodCallLocations.contains(val)) {
                                 Bytecode b = new Bytecode(file.getConstPool());
+                                if (invokeDynamic) {
+                                    b.addInvokedynamic(bootstrapIndex, METHOD_NAME, REPLACED_METHOD_DESCRIPTOR);
+                                    it.writeByte(CodeIterator.NOP, index);
+                                    it.writeByte(CodeIterator.NOP, index + 1);
+                                    it.writeByte(CodeIterator.NOP, index + 2);
+                                    it.insertEx(b.get());
+                                    continue;
+                                }
                                 // our stack looks like Method, instance,params
                                 // we need Method, instance, params , Method
                                 b.add(Opcode.DUP_X2);
@@ -21,18 +21,30 @@
 package org.fakereplace.manip;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javassist.bytecode.Bytecode;
 import javassist.bytecode.ClassFile;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.MethodInfo;
 import org.fakereplace.logging.Logger;
 import org.fakereplace.manip.data.VirtualToStaticData;
+import org.fakereplace.manip.util.InvokeDynamicUtils;
 import org.fakereplace.manip.util.ManipulationDataStore;
-
+import org.fakereplace.runtime.RedirectionBootstrap;
+
+/**
+ * Manipulator that replaces method invocations with invocations of a static method, generally on
+ * a generated proxy class.
+ * <p/>
+ * For java 7 class files calls to added methods that are redirected to a proxy class are replaced with an
+ * invokedynamic instruction bound by {@link RedirectionBootstrap}. These call sites are re-pointed when the redirection
+ * changes, so the callers do not need to be transformed again.
+ */
 public class MethodInvokationManipulator implements ClassManipulator {
 
     private final ManipulationDataStore<VirtualToStaticData> data = new ManipulationDataStore<VirtualToStaticData>();
@@ -41,6 +53,7 @@ public class MethodInvokationManipulator implements ClassManipulator {
 
     public void clearRewrites(String className, ClassLoader loader) {
         data.remove(className, loader);
+        RedirectionBootstrap.clear(loader, className);
     }
 
     /**
@@ -60,6 +73,18 @@ public class MethodInvokationManipulator implements ClassManipulator {
         data.add(oldClass, d);
     }
 
+    /**
+     * Redirects invocations of an added method to a static method on its proxy class. Unlike
+     * {@link #replaceVirtualMethodInvokationWithStatic(String, String, String, String, String, ClassLoader)} java 7
+     * callers are bound through {@link RedirectionBootstrap}, so they can be re-pointed when the method is replaced
+     * again.
+     */
+    public void replaceAddedMethodInvokation(String oldClass, String newClass, String methodName, String methodDesc, String newStaticMethodDesc, ClassLoader classLoader) {
+        VirtualToStaticData d = new VirtualToStaticData(oldClass, newClass, methodName, methodDesc, newStaticMethodDesc, null, classLoader, true);
+        data.add(oldClass, d);
+        RedirectionBootstrap.redirect(classLoader, oldClass, methodName, methodDesc, newClass, methodName);
+    }
+
     public void replaceVirtualMethodInvokationWithLocal(String oldClass, String methodName, String newMethodName, String methodDesc, String newStaticMethodDesc, ClassLoader classLoader) {
         VirtualToStaticData d = new VirtualToStaticData(oldClass, null, methodName, methodDesc, newStaticMethodDesc, newMethodName, classLoader);
         data.add(oldClass, d);
@@ -70,6 +95,9 @@ public class MethodInvokationManipulator implements ClassManipulator {
         final Map<Integer, VirtualToStaticData> methodCallLocations = new HashMap<Integer, VirtualToStaticData>();
         final Map<VirtualToStaticData, Integer> newClassPoolLocations = new HashMap<VirtualToStaticData, Integer>();
         final Map<VirtualToStaticData, Integer> newCallLocations = new HashMap<VirtualToStaticData, Integer>();
+        // redirections that are performed with invokedynamic, the call location is an invokedynamic constant
+        final Set<VirtualToStaticData> invokeDynamicCalls = new HashSet<VirtualToStaticData>();
+        final boolean invokeDynamic = InvokeDynamicUtils.isInvokeDynamicSupported(file);
         // first we need to scan the constant pool looking for
         // CONSTANT_method_info_ref structures
         ConstPool pool = file.getConstPool();
@@ -101,6 +129,14 @@ public class MethodInvokationManipulator implements ClassManipulator {
                                 // we have not added the new class reference or
                                 // the new call location to the class pool yet
                                 int newCpLoc;
+                                if (invokeDynamic && data.isInvokeDynamic()) {
+                                    final int bootstrapIndex = InvokeDynamicUtils.addBootstrapMethod(file, RedirectionBootstrap.class.getName(), RedirectionBootstrap.BOOTSTRAP_METHOD_NAME, data.getOldClass(), data.getMethodDesc());
+                                    int newNameAndType = pool.addNameAndTypeInfo(data.getMethodName(), data.getNewStaticMethodDesc());
+                                    newClassPoolLocations.put(data, bootstrapIndex);
+                                    newCallLocations.put(data, pool.addInvokeDynamicInfo(bootstrapIndex, newNameAndType));
+                                    invokeDynamicCalls.add(data);
+                                    break;
+                                }
                                 if (data.getNewClass() != null) {
                                     newCpLoc = pool.addClassInfo(data.getNewClass());
                                 } else {
@@ -142,6 +178,26 @@ public class MethodInvokationManipulator implements ClassManipulator {
                             // replacing
                             if (methodCallLocations.containsKey(val)) {
                                 VirtualToStaticData data = methodCallLocations.get(val);
+                                if (invokeDynamicCalls.contains(data)) {
+                                    if (op == CodeIterator.INVOKEINTERFACE) {
+                                        // INVOKEINTERFACE is the same length as INVOKEDYNAMIC
+                                        it.writeByte(CodeIterator.INVOKEDYNAMIC, index);
+                                        it.write16bit(newCallLocations.get(data), index + 1);
+                                        it.writeByte(0, index + 3);
+                                        it.writeByte(0, index + 4);
+                                    } else {
+                                        Bytecode b = new Bytecode(file.getConstPool());
+                                        b.add(CodeIterator.INVOKEDYNAMIC);
+                                        b.addIndex(newCallLocations.get(data));
+                                        b.add(0, 0);
+                                        it.writeByte(CodeIterator.NOP, index);
+                                        it.writeByte(CodeIterator.NOP, index + 1);
+                                        it.writeByte(CodeIterator.NOP, index + 2);
+                                        it.insertEx(b.get());
+                                    }
+                                    modifiedMethods.add(m);
+                                    continue;
+                                }
                                 // change the call to an invokestatic
                                 it.writeByte(CodeIterator.INVOKESTATIC, index);
                                 // change the method that is being called
@@ -23,7 +23,10 @@ package org.fakereplace.manip;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javassist.bytecode.AccessFlag;
 import javassist.bytecode.ClassFile;
@@ -31,8 +34,6 @@ import javassist.bytecode.DuplicateMemberException;
 import javassist.bytecode.FieldInfo;
 import javassist.bytecode.SignatureAttribute;
 import org.fakereplace.classloading.ProxyDefinitionStore;
-import org.fakereplace.com.google.common.base.Function;
-import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.data.ClassDataStore;
 
 /**
@@ -41,6 +42,9 @@ import org.fakereplace.data.ClassDataStore;
  * then the same (existing) class is returned, so that static fields can hold
  * their values across replacements
  * <p/>
+ * All the fields that are added to a class in a single replacement are put into
+ * the same holder class, rather than defining a new class for every field.
+ * <p/>
  * Modifiers and annotations are ignored, these are handled by instrumentation
  * of the reflection API
  *
@@ -48,40 +52,70 @@ import org.fakereplace.data.ClassDataStore;
  */
 public class StaticFieldClassFactory {
 
-    private static final Map<StaticFieldDescriptor, String> fieldClasses = new MapMaker().makeComputingMap(new Function<StaticFieldDescriptor, String>() {
+    private static final Map<StaticFieldDescriptor, String> fieldClasses = new ConcurrentHashMap<StaticFieldDescriptor, String>();
 
-        public String apply(StaticFieldDescriptor from) {
-            // this is quite simple. First we create a proxy
-            String proxyName = ProxyDefinitionStore.getProxyName();
-            ClassFile proxy = new ClassFile(false, proxyName, "java.lang.Object");
-            ClassDataStore.instance().registerProxyName(from.getClazz(), proxyName);
-            proxy.setAccessFlags(AccessFlag.PUBLIC);
-            FieldInfo newField = new FieldInfo(proxy.getConstPool(), from.getName(), from.getDescriptor());
-            newField.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.STATIC);
-            if (from.getSigniture() != null) {
-                SignatureAttribute sig = new SignatureAttribute(proxy.getConstPool(), from.getSigniture());
-                newField.addAttribute(sig);
+    /**
+     * Returns the names of the classes that hold the given added static fields, in the same order as the fields.
+     * Fields that were added in an earlier replacement keep their existing holder, the rest are put into a single
+     * new holder class.
+     */
+    public static synchronized List<String> getStaticFieldClasses(Class<?> clazz, List<FieldInfo> fields) {
+        final List<String> ret = new ArrayList<String>(fields.size());
+        final List<StaticFieldDescriptor> newFields = new ArrayList<StaticFieldDescriptor>();
+        for (FieldInfo field : fields) {
+            String sig = null;
+            SignatureAttribute sat = (SignatureAttribute) field.getAttribute(SignatureAttribute.tag);
+            if (sat != null) {
+                sig = sat.getSignature();
             }
-            try {
-                proxy.addField(newField);
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream(bytes);
-                try {
-                    proxy.write(dos);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            final StaticFieldDescriptor d = new StaticFieldDescriptor(clazz, field.getDescriptor(), field.getName(), sig);
+            final String existing = fieldClasses.get(d);
+            if (existing == null) {
+                newFields.add(d);
+            }
+            ret.add(existing);
+        }
+        if (!newFields.isEmpty()) {
+            final String proxyName = createHolderClass(clazz, newFields);
+            for (StaticFieldDescriptor d : newFields) {
+                fieldClasses.put(d, proxyName);
+            }
+            for (int i = 0; i < ret.size(); ++i) {
+                if (ret.get(i) == null) {
+                    ret.set(i, proxyName);
                 }
-                ProxyDefinitionStore.saveProxyDefinition(from.getClazz().getClassLoader(), proxyName, bytes.toByteArray());
-            } catch (DuplicateMemberException e) {
-                // can't happen
             }
-            return proxyName;
         }
-    });
+        return ret;
+    }
 
-    public static String getStaticFieldClass(Class<?> clazz, String fieldName, String fieldDescriptor, String signiture) {
-        StaticFieldDescriptor d = new StaticFieldDescriptor(clazz, fieldDescriptor, fieldName, signiture);
-        return fieldClasses.get(d);
+    private static String createHolderClass(Class<?> clazz, List<StaticFieldDescriptor> fields) {
+        String proxyName = ProxyDefinitionStore.getProxyName();
+        ClassFile proxy = new ClassFile(false, proxyName, "java.lang.Object");
+        ClassDataStore.instance().registerProxyName(clazz, proxyName);
+        proxy.setAccessFlags(AccessFlag.PUBLIC);
+        try {
+            for (StaticFieldDescriptor from : fields) {
+                FieldInfo newField = new FieldInfo(proxy.getConstPool(), from.getName(), from.getDescriptor());
+                newField.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.STATIC);
+                if (from.getSigniture() != null) {
+                    SignatureAttribute sig = new SignatureAttribute(proxy.getConstPool(), from.getSigniture());
+                    newField.addAttribute(sig);
+                }
+                proxy.addField(newField);
+            }
+        } catch (DuplicateMemberException e) {
+            // can't happen
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        try {
+            proxy.write(dos);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        ProxyDefinitionStore.saveProxyDefinition(clazz.getClassLoader(), proxyName, bytes.toByteArray());
+        return proxyName;
     }
 
 }
@@ -33,8 +33,13 @@ public class VirtualToStaticData implements ClassLoaderFiltered<VirtualToStaticD
     private final String methodDesc;
     private final String newStaticMethodDesc;
     private final ClassLoader classLoader;
+    private final boolean invokeDynamic;
 
     public VirtualToStaticData(String oldClass, String newClass, String methodName, String methodDesc, String newStaticMethodDesc, String newMethodName, ClassLoader classLoader) {
+        this(oldClass, newClass, methodName, methodDesc, newStaticMethodDesc, newMethodName, classLoader, false);
+    }
+
+    public VirtualToStaticData(String oldClass, String newClass, String methodName, String methodDesc, String newStaticMethodDesc, String newMethodName, ClassLoader classLoader, boolean invokeDynamic) {
         this.oldClass = oldClass;
         this.newClass = newClass;
         this.methodName = methodName;
@@ -46,6 +51,7 @@ public class VirtualToStaticData implements ClassLoaderFiltered<VirtualToStaticD
         this.methodDesc = methodDesc;
         this.newStaticMethodDesc = newStaticMethodDesc;
         this.classLoader = classLoader;
+        this.invokeDynamic = invokeDynamic;
     }
 
     public String toString() {
@@ -103,6 +109,13 @@ public class VirtualToStaticData implements ClassLoaderFiltered<VirtualToStaticD
         return classLoader;
     }
 
+    /**
+     * @return true if java 7 callers should invoke the new method through a re-pointable invokedynamic call site
+     */
+    public boolean isInvokeDynamic() {
+        return invokeDynamic;
+    }
+
     public VirtualToStaticData getInstance() {
         return this;
     }
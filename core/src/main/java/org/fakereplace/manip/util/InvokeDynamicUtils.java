@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.manip.util;
+
+import javassist.bytecode.BootstrapMethodsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+
+/**
+ * Utilities for emitting invokedynamic call sites into instrumented classes
+ */
+public class InvokeDynamicUtils {
+
+    /**
+     * invokedynamic can only be used in class files from java 7 onwards
+     */
+    public static final int JAVA_7_MAJOR_VERSION = 51;
+
+    public static final String BOOTSTRAP_DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+
+    private InvokeDynamicUtils() {
+
+    }
+
+    public static boolean isInvokeDynamicSupported(ClassFile file) {
+        return file.getMajorVersion() >= JAVA_7_MAJOR_VERSION;
+    }
+
+    /**
+     * Adds a static bootstrap method to the BootstrapMethods attribute of the class, reusing an existing entry
+     * if there is one. Any static arguments are passed to the bootstrap method as String constants.
+     *
+     * @return the index of the bootstrap method, for use in an invokedynamic instruction
+     */
+    public static int addBootstrapMethod(ClassFile file, String className, String methodName, String... staticArguments) {
+        final ConstPool pool = file.getConstPool();
+        final BootstrapMethodsAttribute existing = (BootstrapMethodsAttribute) file.getAttribute(BootstrapMethodsAttribute.tag);
+        final BootstrapMethodsAttribute.BootstrapMethod[] oldMethods;
+        if (existing == null) {
+            oldMethods = new BootstrapMethodsAttribute.BootstrapMethod[0];
+        } else {
+            oldMethods = existing.getMethods();
+            for (int i = 0; i < oldMethods.length; ++i) {
+                final BootstrapMethodsAttribute.BootstrapMethod method = oldMethods[i];
+                if (pool.getMethodHandleKind(method.methodRef) == ConstPool.REF_invokeStatic) {
+                    final int ref = pool.getMethodHandleIndex(method.methodRef);
+                    if (pool.getMethodrefClassName(ref).equals(className) && pool.getMethodrefName(ref).equals(methodName) && argumentsMatch(pool, method.arguments, staticArguments)) {
+                        return i;
+                    }
+                }
+            }
+        }
+        final int methodRef = pool.addMethodrefInfo(pool.addClassInfo(className), methodName, bootstrapDescriptor(staticArguments.length));
+        final int handle = pool.addMethodHandleInfo(ConstPool.REF_invokeStatic, methodRef);
+        final int[] arguments = new int[staticArguments.length];
+        for (int i = 0; i < staticArguments.length; ++i) {
+            arguments[i] = pool.addStringInfo(staticArguments[i]);
+        }
+        final BootstrapMethodsAttribute.BootstrapMethod[] methods = new BootstrapMethodsAttribute.BootstrapMethod[oldMethods.length + 1];
+        System.arraycopy(oldMethods, 0, methods, 0, oldMethods.length);
+        methods[oldMethods.length] = new BootstrapMethodsAttribute.BootstrapMethod(handle, arguments);
+        file.addAttribute(new BootstrapMethodsAttribute(pool, methods));
+        return oldMethods.length;
+    }
+
+    private static boolean argumentsMatch(ConstPool pool, int[] arguments, String[] staticArguments) {
+        if (arguments.length != staticArguments.length) {
+            return false;
+        }
+        for (int i = 0; i < arguments.length; ++i) {
+            if (pool.getTag(arguments[i]) != ConstPool.CONST_String || !pool.getStringInfo(arguments[i]).equals(staticArguments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String bootstrapDescriptor(int staticArgumentCount) {
+        if (staticArgumentCount == 0) {
+            return BOOTSTRAP_DESCRIPTOR;
+        }
+        final StringBuilder builder = new StringBuilder("(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;");
+        for (int i = 0; i < staticArgumentCount; ++i) {
+            builder.append("Ljava/lang/String;");
+        }
+        builder.append(")Ljava/lang/invoke/CallSite;");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.reflection;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.lang.reflect.Method;
+
+/**
+ * Bootstrap for the invokedynamic call sites that replace <code>Method.invoke</code> in instrumented
+ * classes.
+ * <p/>
+ * Until fakereplace has generated a class there can be no Method objects that need a fake call, so the call
+ * sites are bound straight to <code>Method.invoke</code>. Once a proxy class is generated the switch point is
+ * invalidated and all call sites relink to a target that performs the
+ * {@link MethodReflection#fakeCallRequired(Method)} check.
+ */
+public class MethodInvokeBootstrap {
+
+    public static final String BOOTSTRAP_METHOD_NAME = "bootstrap";
+
+    private static final SwitchPoint NO_GENERATED_CLASSES = new SwitchPoint();
+
+    private static final MethodType INVOKE_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private static final MethodHandle FAKE_CALL_REQUIRED;
+
+    private static final MethodHandle FAKE_INVOKE;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FAKE_CALL_REQUIRED = lookup.findStatic(MethodReflection.class, "fakeCallRequired", MethodType.methodType(boolean.class, Method.class));
+            FAKE_INVOKE = lookup.findStatic(MethodReflection.class, "invoke", MethodType.methodType(Object.class, Method.class, Object.class, Object[].class));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        // Method.invoke is caller sensitive, so it must be looked up
+        // with the lookup of the calling class
+        final MethodHandle invoke = lookup.findVirtual(Method.class, "invoke", INVOKE_TYPE);
+        final MethodHandle test = MethodHandles.dropArguments(FAKE_CALL_REQUIRED, 1, Object.class, Object[].class);
+        final MethodHandle checked = MethodHandles.guardWithTest(test, FAKE_INVOKE, invoke);
+        return new ConstantCallSite(NO_GENERATED_CLASSES.guardWithTest(invoke, checked).asType(type));
+    }
+
+    /**
+     * Called when a class is generated, after which Method objects that require a fake call may exist
+     */
+    public static void classGenerated() {
+        if (!NO_GENERATED_CLASSES.hasBeenInvalidated()) {
+            SwitchPoint.invalidateAll(new SwitchPoint[]{NO_GENERATED_CLASSES});
+        }
+    }
+}
@@ -33,7 +33,6 @@ import org.fakereplace.data.ClassData;
 import org.fakereplace.data.ClassDataStore;
 import org.fakereplace.data.MemberType;
 import org.fakereplace.data.MethodData;
-import org.fakereplace.data.ModifiedMethod;
 import org.fakereplace.util.DescriptorUtils;
 import sun.reflect.Reflection;
 
@@ -45,7 +44,7 @@ import sun.reflect.Reflection;
  */
 public class MethodReflection {
     public static int getModifiers(Method method) {
-        if (method.isAnnotationPresent(ModifiedMethod.class)) {
+        if (ClassDataStore.instance().isMethodDefinalised(method)) {
             return method.getModifiers() | Modifier.FINAL;
         }
         return method.getModifiers();
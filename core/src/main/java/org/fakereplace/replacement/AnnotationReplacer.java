@@ -23,6 +23,7 @@ package org.fakereplace.replacement;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
 import javassist.bytecode.AnnotationsAttribute;
@@ -31,7 +32,13 @@ import javassist.bytecode.ConstPool;
 import javassist.bytecode.ParameterAnnotationsAttribute;
 import org.fakereplace.data.AnnotationBuilder;
 import org.fakereplace.data.AnnotationDataStore;
+import org.fakereplace.data.OriginalAnnotationStore;
 
+/**
+ * Reverts the annotations of redefined classes to their original values. Where the original annotation
+ * attributes were recorded by {@link OriginalAnnotationStore} they are copied directly, otherwise they are
+ * rebuilt from the live annotation instances.
+ */
 public class AnnotationReplacer {
 
     /**
@@ -49,6 +56,10 @@ public class AnnotationReplacer {
     }
 
     public static AnnotationsAttribute duplicateAnnotationsAttribute(ConstPool cp, AnnotatedElement element) {
+        final AnnotationsAttribute original = getOriginalAnnotations(cp, element);
+        if (original != null) {
+            return original;
+        }
         AnnotationsAttribute oldAns = new AnnotationsAttribute(cp, AnnotationsAttribute.visibleTag);
         for (Annotation a : element.getAnnotations()) {
             oldAns.addAnnotation(AnnotationBuilder.createJavassistAnnotation(a, cp));
@@ -57,25 +68,41 @@ public class AnnotationReplacer {
     }
 
     public static ParameterAnnotationsAttribute duplicateParameterAnnotationsAttribute(ConstPool cp, Method method) {
-        ParameterAnnotationsAttribute oldAns = new ParameterAnnotationsAttribute(cp, ParameterAnnotationsAttribute.visibleTag);
-        javassist.bytecode.annotation.Annotation[][] anAr = new javassist.bytecode.annotation.Annotation[method.getParameterAnnotations().length][];
-        for (int i = 0; i < anAr.length; ++i) {
-            anAr[i] = new javassist.bytecode.annotation.Annotation[method.getParameterAnnotations()[i].length];
-            for (int j = 0; j < anAr[i].length; ++j) {
-                anAr[i][j] = AnnotationBuilder.createJavassistAnnotation(method.getParameterAnnotations()[i][j], cp);
-            }
+        final ParameterAnnotationsAttribute original = OriginalAnnotationStore.getMethodParameterAnnotations(method, cp);
+        if (original != null) {
+            return original;
         }
-        oldAns.setAnnotations(anAr);
-        return oldAns;
+        return createParameterAnnotationsAttribute(cp, method.getParameterAnnotations());
     }
 
     public static ParameterAnnotationsAttribute duplicateParameterAnnotationsAttribute(ConstPool cp, Constructor<?> method) {
+        final ParameterAnnotationsAttribute original = OriginalAnnotationStore.getConstructorParameterAnnotations(method, cp);
+        if (original != null) {
+            return original;
+        }
+        return createParameterAnnotationsAttribute(cp, method.getParameterAnnotations());
+    }
+
+    private static AnnotationsAttribute getOriginalAnnotations(ConstPool cp, AnnotatedElement element) {
+        if (element instanceof Class) {
+            return OriginalAnnotationStore.getClassAnnotations((Class<?>) element, cp);
+        } else if (element instanceof Method) {
+            return OriginalAnnotationStore.getMethodAnnotations((Method) element, cp);
+        } else if (element instanceof Field) {
+            return OriginalAnnotationStore.getFieldAnnotations((Field) element, cp);
+        } else if (element instanceof Constructor) {
+            return OriginalAnnotationStore.getConstructorAnnotations((Constructor<?>) element, cp);
+        }
+        return null;
+    }
+
+    private static ParameterAnnotationsAttribute createParameterAnnotationsAttribute(ConstPool cp, Annotation[][] parameterAnnotations) {
         ParameterAnnotationsAttribute oldAns = new ParameterAnnotationsAttribute(cp, ParameterAnnotationsAttribute.visibleTag);
-        javassist.bytecode.annotation.Annotation[][] anAr = new javassist.bytecode.annotation.Annotation[method.getParameterAnnotations().length][];
+        javassist.bytecode.annotation.Annotation[][] anAr = new javassist.bytecode.annotation.Annotation[parameterAnnotations.length][];
         for (int i = 0; i < anAr.length; ++i) {
-            anAr[i] = new javassist.bytecode.annotation.Annotation[method.getParameterAnnotations()[i].length];
+            anAr[i] = new javassist.bytecode.annotation.Annotation[parameterAnnotations[i].length];
             for (int j = 0; j < anAr[i].length; ++j) {
-                anAr[i][j] = AnnotationBuilder.createJavassistAnnotation(method.getParameterAnnotations()[i][j], cp);
+                anAr[i][j] = AnnotationBuilder.createJavassistAnnotation(parameterAnnotations[i][j], cp);
             }
         }
         oldAns.setAnnotations(anAr);
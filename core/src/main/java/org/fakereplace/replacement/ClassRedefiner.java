@@ -35,14 +35,20 @@ import javassist.ClassPool;
 import javassist.bytecode.BadBytecode;
 import javassist.bytecode.ClassFile;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.FieldInfo;
 import javassist.bytecode.MethodInfo;
 import org.fakereplace.core.AgentOption;
 import org.fakereplace.core.AgentOptions;
 import org.fakereplace.core.Transformer;
 import org.fakereplace.data.BaseClassData;
+import org.fakereplace.data.ClassData;
 import org.fakereplace.data.ClassDataBuilder;
 import org.fakereplace.data.ClassDataStore;
+import org.fakereplace.data.FieldData;
+import org.fakereplace.data.MemberType;
+import org.fakereplace.data.MethodData;
 import org.fakereplace.logging.Logger;
+import org.fakereplace.transformation.ReferenceIndex;
 
 public class ClassRedefiner {
 
@@ -86,10 +92,22 @@ public class ClassRedefiner {
             System.out.println("Superclass changed from " + b.getSuperClassName() + " to " + file.getSuperclass() + " in class " + file.getName());
         }
 
+        final Set<String> changedMembers = getChangedMembers(file, loader);
         ClassDataBuilder builder = new ClassDataBuilder(b);
         AnnotationReplacer.processAnnotations(file, oldClass);
         FieldReplacer.handleFieldReplacement(file, loader, oldClass, builder);
-        MethodReplacer.handleMethodReplacement(file, loader, oldClass, builder, classToReload);
+        final Set<Class<?>> superclasses = new HashSet<Class<?>>();
+        MethodReplacer.handleMethodReplacement(file, loader, oldClass, builder, superclasses);
+        // a superclass whose method has been overridden only needs to be retransformed
+        // if something can actually call the method on an instance of this class
+        for (Class<?> superclass : superclasses) {
+            if (ReferenceIndex.isRetransformRequired(oldClass, superclass, changedMembers)) {
+                classToReload.add(superclass);
+            }
+        }
+        // only the loaded classes that actually reference an added or removed member
+        // need to be retransformed to pick up the new rewrites
+        classToReload.addAll(ReferenceIndex.getReferencingClasses(loader, file.getName(), changedMembers));
         try {
             for (MethodInfo method : (List<MethodInfo>) file.getMethods()) {
                 method.rebuildStackMap(ClassPool.getDefault());
@@ -115,4 +133,47 @@ public class ClassRedefiner {
         ClassDataStore.instance().saveClassData(loader, file.getName(), builder);
     }
 
+    /**
+     * Compares the new class file against the current class data and returns the signatures
+     * of all members that have been added or removed
+     */
+    private static Set<String> getChangedMembers(ClassFile file, ClassLoader loader) {
+        final Set<String> changed = new HashSet<String>();
+        final ClassData current = ClassDataStore.instance().getModifiedClassData(loader, file.getName());
+        if (current == null) {
+            return changed;
+        }
+        final Set<String> oldMembers = new HashSet<String>();
+        for (MethodData method : current.getMethods()) {
+            if (method.getType() != MemberType.REMOVED && method.getType() != MemberType.ADDED_SYSTEM) {
+                oldMembers.add(ReferenceIndex.methodKey(method.getMethodName(), method.getDescriptor()));
+            }
+        }
+        for (FieldData field : current.getFields()) {
+            if (field.getMemberType() != MemberType.REMOVED) {
+                oldMembers.add(ReferenceIndex.fieldKey(field.getName()));
+            }
+        }
+        final Set<String> newMembers = new HashSet<String>();
+        for (MethodInfo method : (List<MethodInfo>) file.getMethods()) {
+            if (!method.getName().equals("<clinit>")) {
+                newMembers.add(ReferenceIndex.methodKey(method.getName(), method.getDescriptor()));
+            }
+        }
+        for (FieldInfo field : (List<FieldInfo>) file.getFields()) {
+            newMembers.add(ReferenceIndex.fieldKey(field.getName()));
+        }
+        for (String member : newMembers) {
+            if (!oldMembers.contains(member)) {
+                changed.add(member);
+            }
+        }
+        for (String member : oldMembers) {
+            if (!newMembers.contains(member)) {
+                changed.add(member);
+            }
+        }
+        return changed;
+    }
+
 }
@@ -26,9 +26,11 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 
 import javassist.bytecode.AccessFlag;
@@ -60,10 +62,20 @@ public class FieldReplacer {
         Set<FieldData> fields = new HashSet<FieldData>();
         fields.addAll(data.getFields());
 
+        // index the existing fields, so each new field can be matched with a single lookup
+        final Map<String, FieldData> fieldsBySignature = new HashMap<String, FieldData>();
+        for (FieldData i : fields) {
+            final String key = fieldKey(i.getName(), i.getType(), i.getAccessFlags());
+            if (!fieldsBySignature.containsKey(key)) {
+                fieldsBySignature.put(key, i);
+            }
+        }
+
         ListIterator<?> it = file.getFields().listIterator();
 
         int noAddedFields = 0;
         List<AddedFieldData> addedFields = new ArrayList<AddedFieldData>();
+        List<FieldInfo> addedStaticFields = new ArrayList<FieldInfo>();
 
         // now we iterator through all fields
         // in the process we modify the new class so that is's signature
@@ -72,30 +84,22 @@ public class FieldReplacer {
 
         while (it.hasNext()) {
             FieldInfo m = (FieldInfo) it.next();
-            FieldData md = null;
-            for (FieldData i : fields) {
-                if (i.getName().equals(m.getName()) && i.getType().equals(m.getDescriptor()) && i.getAccessFlags() == m.getAccessFlags()) {
-                    try {
-                        Field field = i.getField(oldClass);
-                        AnnotationDataStore.recordFieldAnnotations(field, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
-                        // now revert the annotations:
-                        m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), field));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                    md = i;
-                    break;
-                } else if (i.getName().equals(m.getName()) && i.getType().equals(m.getDescriptor())) {
-                    // we have a field whoes access modifiers have changed.
-                    if ((i.getAccessFlags() | AccessFlag.STATIC) == (m.getAccessFlags() | AccessFlag.STATIC)) {
-                        // change from / to static can be handled fine
-                    }
+            // a field whose access modifiers have changed is treated as a new field
+            final FieldData md = fieldsBySignature.remove(fieldKey(m.getName(), m.getDescriptor(), m.getAccessFlags()));
+            if (md != null) {
+                try {
+                    Field field = md.getField(oldClass);
+                    AnnotationDataStore.recordFieldAnnotations(field, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
+                    // now revert the annotations:
+                    m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), field));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
                 }
             }
             // This is a newly added field.
             if (md == null) {
                 if ((m.getAccessFlags() & AccessFlag.STATIC) != 0) {
-                    addStaticField(file, loader, m, builder, oldClass);
+                    addedStaticFields.add(m);
                 } else {
                     int fieldNo = addInstanceField(file, loader, m, builder, oldClass);
                     addedFields.add(new AddedFieldData(fieldNo, m.getName(), m.getDescriptor(), file.getName(), loader));
@@ -106,6 +110,9 @@ public class FieldReplacer {
                 fields.remove(md);
             }
         }
+        if (!addedStaticFields.isEmpty()) {
+            addStaticFields(file, loader, addedStaticFields, builder, oldClass);
+        }
         // these fields have been removed,
         // TODO: rewrite classes that access them to throw a NoSuchFieldError
         for (FieldData md : fields) {
@@ -135,36 +142,36 @@ public class FieldReplacer {
         }
     }
 
+    private static String fieldKey(String name, String descriptor, int accessFlags) {
+        return name + " " + descriptor + " " + accessFlags;
+    }
+
     /**
-     * This will create a proxy with a static field, and all access to the static
-     * field is re-written to the proxy instead
+     * This will create a proxy holding the added static fields, and all access to the static
+     * fields is re-written to the proxy instead
      *
      * @param file
      * @param loader
-     * @param m
+     * @param added
      */
-    private static void addStaticField(ClassFile file, ClassLoader loader, FieldInfo m, ClassDataBuilder builder, Class<?> oldClass) {
-        // this will generate the class holding the satic field if is does not
+    private static void addStaticFields(ClassFile file, ClassLoader loader, List<FieldInfo> added, ClassDataBuilder builder, Class<?> oldClass) {
+        // this will generate the class holding the static fields if they do not
         // already exist. This allows
-        // the static field to hold its value accross multiple replacements
-
-        String sig = null;
-        SignatureAttribute sat = (SignatureAttribute) m.getAttribute(SignatureAttribute.tag);
-        if (sat != null) {
-            sig = sat.getSignature();
-        }
-
-        String proxyName = StaticFieldClassFactory.getStaticFieldClass(oldClass, m.getName(), m.getDescriptor(), sig);
-        try {
-            Field fieldFromProxy = loader.loadClass(proxyName).getDeclaredField(m.getName());
-            AnnotationDataStore.recordFieldAnnotations(fieldFromProxy, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
-        } catch (Exception e) {
-            // should not happen
-            e.printStackTrace();
+        // the static fields to hold their values accross multiple replacements
+        final List<String> proxyNames = StaticFieldClassFactory.getStaticFieldClasses(oldClass, added);
+        for (int i = 0; i < added.size(); ++i) {
+            final FieldInfo m = added.get(i);
+            final String proxyName = proxyNames.get(i);
+            try {
+                Field fieldFromProxy = loader.loadClass(proxyName).getDeclaredField(m.getName());
+                AnnotationDataStore.recordFieldAnnotations(fieldFromProxy, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
+            } catch (Exception e) {
+                // should not happen
+                e.printStackTrace();
+            }
+            Transformer.getManipulator().rewriteStaticFieldAccess(file.getName(), proxyName, m.getName(), loader);
+            builder.addFakeField(m, proxyName, m.getAccessFlags());
         }
-        Transformer.getManipulator().rewriteStaticFieldAccess(file.getName(), proxyName, m.getName(), loader);
-        builder.addFakeField(m, proxyName, m.getAccessFlags());
-
     }
 
     /**
@@ -26,9 +26,12 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 
 import javassist.ClassPool;
@@ -51,6 +54,7 @@ import javassist.bytecode.SignatureAttribute;
 import org.fakereplace.classloading.ProxyDefinitionStore;
 import org.fakereplace.core.BuiltinClassData;
 import org.fakereplace.core.Constants;
+import org.fakereplace.core.SpecialisedDelegator;
 import org.fakereplace.core.Transformer;
 import org.fakereplace.data.AnnotationDataStore;
 import org.fakereplace.data.BaseClassData;
@@ -73,6 +77,9 @@ public class MethodReplacer {
     public static void handleMethodReplacement(ClassFile file, ClassLoader loader, Class<?> oldClass, ClassDataBuilder builder, Set<Class<?>> superclassesToHotswap) {
         // state for added static methods
         CodeAttribute staticCodeAttribute = null, virtualCodeAttribute = null, constructorCodeAttribute = null;
+        // the delegators that take their arguments in registers rather than an array
+        final Map<SpecialisedDelegator, CodeAttribute> staticDelegators = new EnumMap<SpecialisedDelegator, CodeAttribute>(SpecialisedDelegator.class);
+        final Map<SpecialisedDelegator, CodeAttribute> virtualDelegators = new EnumMap<SpecialisedDelegator, CodeAttribute>(SpecialisedDelegator.class);
         try {
             // stick our added methods into the class file
             // we can't finalise the code yet because we will probably need
@@ -117,6 +124,16 @@ public class MethodReplacer {
                 }
             }
             file.addMethod(virtMethod);
+            for (SpecialisedDelegator delegator : SpecialisedDelegator.enabled()) {
+                final MethodInfo virtualDelegator = delegator.createMethod(file, false);
+                file.addMethod(virtualDelegator);
+                if (!file.isInterface()) {
+                    virtualDelegators.put(delegator, virtualDelegator.getCodeAttribute());
+                    final MethodInfo staticDelegator = delegator.createMethod(file, true);
+                    file.addMethod(staticDelegator);
+                    staticDelegators.put(delegator, staticDelegator.getCodeAttribute());
+                }
+            }
         } catch (DuplicateMemberException e) {
             e.printStackTrace();
         }
@@ -126,6 +143,15 @@ public class MethodReplacer {
 
         methods.addAll(data.getMethods());
 
+        // index the existing methods, so each new method can be matched with a single lookup
+        final Map<String, MethodData> methodsBySignature = new HashMap<String, MethodData>();
+        for (MethodData i : methods) {
+            final String key = i.getMethodName() + i.getDescriptor();
+            if (!methodsBySignature.containsKey(key)) {
+                methodsBySignature.put(key, i);
+            }
+        }
+
         ListIterator<?> it = file.getMethods().listIterator();
 
         // now we iterator through all methods and constructors and compare new
@@ -136,56 +162,54 @@ public class MethodReplacer {
             MethodInfo m = (MethodInfo) it.next();
             MethodData md = null;
             boolean upgradedVisibility = false;
-            for (MethodData i : methods) {
-                if (i.getMethodName().equals(m.getName()) && i.getDescriptor().equals(m.getDescriptor())) {
-
-                    // if the access flags do not match then what we need to do
-                    // depends on what has changed
-                    if (i.getAccessFlags() != m.getAccessFlags()) {
-                        if (AccessFlagUtils.upgradeVisibility(m.getAccessFlags(), i.getAccessFlags())) {
-                            upgradedVisibility = true;
-                        } else if (AccessFlagUtils.downgradeVisibility(m.getAccessFlags(), i.getAccessFlags())) {
-                            // ignore this, we don't need to do anything
-                        } else {
-                            // we can't handle this yet
-                            continue;
-                        }
+            final MethodData i = methodsBySignature.get(m.getName() + m.getDescriptor());
+            boolean compatible = i != null;
+            // if the access flags do not match then what we need to do
+            // depends on what has changed
+            if (compatible && i.getAccessFlags() != m.getAccessFlags()) {
+                if (AccessFlagUtils.upgradeVisibility(m.getAccessFlags(), i.getAccessFlags())) {
+                    upgradedVisibility = true;
+                } else if (AccessFlagUtils.downgradeVisibility(m.getAccessFlags(), i.getAccessFlags())) {
+                    // ignore this, we don't need to do anything
+                } else {
+                    // we can't handle this yet
+                    compatible = false;
+                }
+            }
+            if (compatible) {
+                m.setAccessFlags(i.getAccessFlags());
+
+                // if it is the constructor
+                if (m.getName().equals("<init>")) {
+                    try {
+                        Constructor<?> meth = i.getConstructor(oldClass);
+                        AnnotationDataStore.recordConstructorAnnotations(meth, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
+                        // now revert the annotations:
+                        m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), meth));
+                        m.addAttribute(AnnotationReplacer.duplicateParameterAnnotationsAttribute(file.getConstPool(), meth));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
                     }
-                    m.setAccessFlags(i.getAccessFlags());
-
-                    // if it is the constructor
-                    if (m.getName().equals("<init>")) {
-                        try {
-                            Constructor<?> meth = i.getConstructor(oldClass);
-                            AnnotationDataStore.recordConstructorAnnotations(meth, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
-                            // now revert the annotations:
-                            m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), meth));
-                            m.addAttribute(AnnotationReplacer.duplicateParameterAnnotationsAttribute(file.getConstPool(), meth));
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    } else if (!m.getName().equals("<clinit>")) {
-                        // other methods
-                        // static constructors cannot have annotations so
-                        // we do not have to worry about them
-                        try {
-                            Method meth = i.getMethod(oldClass);
-                            AnnotationDataStore.recordMethodAnnotations(meth, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
-                            AnnotationDataStore.recordMethodParameterAnnotations(meth, (ParameterAnnotationsAttribute) m.getAttribute(ParameterAnnotationsAttribute.visibleTag));
-                            // now revert the annotations:
-                            m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), meth));
-                            m.addAttribute(AnnotationReplacer.duplicateParameterAnnotationsAttribute(file.getConstPool(), meth));
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
+                } else if (!m.getName().equals("<clinit>")) {
+                    // other methods
+                    // static constructors cannot have annotations so
+                    // we do not have to worry about them
+                    try {
+                        Method meth = i.getMethod(oldClass);
+                        AnnotationDataStore.recordMethodAnnotations(meth, (AnnotationsAttribute) m.getAttribute(AnnotationsAttribute.visibleTag));
+                        AnnotationDataStore.recordMethodParameterAnnotations(meth, (ParameterAnnotationsAttribute) m.getAttribute(ParameterAnnotationsAttribute.visibleTag));
+                        // now revert the annotations:
+                        m.addAttribute(AnnotationReplacer.duplicateAnnotationsAttribute(file.getConstPool(), meth));
+                        m.addAttribute(AnnotationReplacer.duplicateParameterAnnotationsAttribute(file.getConstPool(), meth));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
                     }
-
-                    md = i;
-                    break;
                 }
+
+                md = i;
             }
             // we do not need to deal with these
-            if (m.getName().equals(Constants.ADDED_METHOD_NAME) || m.getName().equals(Constants.ADDED_STATIC_METHOD_NAME)) {
+            if (m.getName().startsWith(Constants.ADDED_METHOD_NAME) || m.getName().startsWith(Constants.ADDED_STATIC_METHOD_NAME)) {
                 break;
             }
             // This is a newly added method.
@@ -194,7 +218,7 @@ public class MethodReplacer {
             // so it is still in the original
             if (md == null || upgradedVisibility) {
                 if ((m.getAccessFlags() & AccessFlag.STATIC) != 0) {
-                    Class<?> c = addMethod(file, loader, m, builder, staticCodeAttribute, true, oldClass);
+                    Class<?> c = addMethod(file, loader, m, builder, staticCodeAttribute, staticDelegators, true, oldClass);
                     if (c != null) {
                         superclassesToHotswap.add(c);
                     }
@@ -203,7 +227,7 @@ public class MethodReplacer {
                 } else if (m.getName().equals("<clinit>")) {
                     // nop, we can't change this, just ignore it
                 } else {
-                    Class<?> c = addMethod(file, loader, m, builder, virtualCodeAttribute, false, oldClass);
+                    Class<?> c = addMethod(file, loader, m, builder, virtualCodeAttribute, virtualDelegators, false, oldClass);
                     if (c != null) {
                         superclassesToHotswap.add(c);
                     }
@@ -237,6 +261,12 @@ public class MethodReplacer {
                 if (constructorCodeAttribute != null) {
                     constructorCodeAttribute.computeMaxStack();
                 }
+                for (CodeAttribute delegator : staticDelegators.values()) {
+                    delegator.computeMaxStack();
+                }
+                for (CodeAttribute delegator : virtualDelegators.values()) {
+                    delegator.computeMaxStack();
+                }
                 for(MethodInfo method : (List<MethodInfo>)file.getMethods()) {
                     method.rebuildStackMap(ClassPool.getDefault());
                 }
@@ -246,7 +276,7 @@ public class MethodReplacer {
         }
     }
 
-    private static String generateProxyInvocationBytecode(MethodInfo mInfo, int methodNumber, String className, ClassLoader loader, boolean staticMethod, boolean isInterface)
+    private static String generateProxyInvocationBytecode(MethodInfo mInfo, int methodNumber, String className, ClassLoader loader, boolean staticMethod, boolean isInterface, SpecialisedDelegator delegator)
             throws BadBytecode {
         String proxyName = ProxyDefinitionStore.getProxyName();
         ClassFile proxy = new ClassFile(false, proxyName, "java.lang.Object");
@@ -286,58 +316,23 @@ public class MethodReplacer {
         int scind = proxy.getConstPool().addIntegerInfo(methodNumber);
         proxyBytecode.addLdc(scind);
 
-        String[] types = DescriptorUtils.descriptorStringToParameterArray(mInfo.getDescriptor());
-        // create a new array the same size as the parameter array
-        int index = proxyBytecode.getConstPool().addIntegerInfo(types.length);
-        proxyBytecode.addLdc(index);
-        // create new array to use to pass our parameters
-        proxyBytecode.addAnewarray("java.lang.Object");
-        int locals = types.length + paramOffset;
-        for (int i = 0; i < types.length; ++i) {
-            // duplicate the array reference on the stack
-            proxyBytecode.add(Opcode.DUP);
-            // load the array index into the stack
-            index = proxyBytecode.getConstPool().addIntegerInfo(i);
-            proxyBytecode.addLdc(index);
-
-            char tp = types[i].charAt(0);
-            if (tp != 'L' && tp != '[') {
-                // we have a primitive type
-                switch (tp) {
-                    case 'J':
-                        proxyBytecode.addLload(i + paramOffset);
-                        locals++;
-                        break;
-                    case 'D':
-                        proxyBytecode.addDload(i + paramOffset);
-                        locals++;
-                        break;
-                    case 'F':
-                        proxyBytecode.addFload(i + paramOffset);
-                        break;
-                    default:
-                        proxyBytecode.addIload(i + paramOffset);
-                }
-                // lets box it
-                Boxing.box(proxyBytecode, tp);
+        final int locals;
+        if (delegator != null) {
+            // pass the parameters in registers, so nothing needs to be boxed
+            SpecialisedDelegator.loadRegisters(proxyBytecode, mInfo.getDescriptor(), paramOffset);
+            final String delegatorName = delegator.getMethodName(staticMethod);
+            if (staticMethod) {
+                proxyBytecode.addInvokestatic(className, delegatorName, delegator.getDescriptor());
+            } else if (isInterface) {
+                proxyBytecode.addInvokeinterface(className, delegatorName, delegator.getDescriptor(), 1 + SpecialisedDelegator.PARAMETER_SLOTS);
             } else {
-                proxyBytecode.addAload(i + paramOffset); // load parameter i onto
-                // the stack
+                proxyBytecode.addInvokevirtual(className, delegatorName, delegator.getDescriptor());
             }
-            proxyBytecode.add(Opcode.AASTORE);// store the value in the array
-
-        }
-
-        // invoke the added static method
-        if (staticMethod) {
-            proxyBytecode.addInvokestatic(className, Constants.ADDED_STATIC_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;");
-        } else if (isInterface) {
-            proxyBytecode.addInvokeinterface(className, Constants.ADDED_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;", 3);
+            SpecialisedDelegator.addProxyReturn(proxyBytecode, mInfo.getDescriptor());
+            locals = paramOffset + Descriptor.paramSize(mInfo.getDescriptor());
         } else {
-            proxyBytecode.addInvokevirtual(className, Constants.ADDED_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;");
+            locals = addBoxedProxyInvocation(proxyBytecode, mInfo, className, staticMethod, isInterface, paramOffset);
         }
-        // cast it to the appropriate type and return it
-        ManipulationUtils.MethodReturnRewriter.addReturnProxyMethod(mInfo.getDescriptor(), proxyBytecode);
         CodeAttribute ca = proxyBytecode.toCodeAttribute();
         ca.setMaxLocals(locals);
 
@@ -409,22 +404,91 @@ public class MethodReplacer {
     }
 
     /**
-     * Adds a method to a class
+     * Adds the code that boxes the parameters into an array and calls the boxed delegator
+     *
+     * @return the number of local variables used by the proxy method
+     */
+    private static int addBoxedProxyInvocation(Bytecode proxyBytecode, MethodInfo mInfo, String className, boolean staticMethod, boolean isInterface, int paramOffset) {
+        String[] types = DescriptorUtils.descriptorStringToParameterArray(mInfo.getDescriptor());
+        // create a new array the same size as the parameter array
+        int index = proxyBytecode.getConstPool().addIntegerInfo(types.length);
+        proxyBytecode.addLdc(index);
+        // create new array to use to pass our parameters
+        proxyBytecode.addAnewarray("java.lang.Object");
+        int locals = types.length + paramOffset;
+        for (int i = 0; i < types.length; ++i) {
+            // duplicate the array reference on the stack
+            proxyBytecode.add(Opcode.DUP);
+            // load the array index into the stack
+            index = proxyBytecode.getConstPool().addIntegerInfo(i);
+            proxyBytecode.addLdc(index);
+
+            char tp = types[i].charAt(0);
+            if (tp != 'L' && tp != '[') {
+                // we have a primitive type
+                switch (tp) {
+                    case 'J':
+                        proxyBytecode.addLload(i + paramOffset);
+                        locals++;
+                        break;
+                    case 'D':
+                        proxyBytecode.addDload(i + paramOffset);
+                        locals++;
+                        break;
+                    case 'F':
+                        proxyBytecode.addFload(i + paramOffset);
+                        break;
+                    default:
+                        proxyBytecode.addIload(i + paramOffset);
+                }
+                // lets box it
+                Boxing.box(proxyBytecode, tp);
+            } else {
+                proxyBytecode.addAload(i + paramOffset); // load parameter i onto
+                // the stack
+            }
+            proxyBytecode.add(Opcode.AASTORE);// store the value in the array
+
+        }
+
+        // invoke the added static method
+        if (staticMethod) {
+            proxyBytecode.addInvokestatic(className, Constants.ADDED_STATIC_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;");
+        } else if (isInterface) {
+            proxyBytecode.addInvokeinterface(className, Constants.ADDED_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;", 3);
+        } else {
+            proxyBytecode.addInvokevirtual(className, Constants.ADDED_METHOD_NAME, "(I[Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+        // cast it to the appropriate type and return it
+        ManipulationUtils.MethodReturnRewriter.addReturnProxyMethod(mInfo.getDescriptor(), proxyBytecode);
+        return locals;
+    }
+
+    /**
+     * Adds a method to a class. If the parameters of the method fit into the registers of a {@link SpecialisedDelegator}
+     * the method body is added to that delegator, otherwise it is added to the boxed delegator.
      */
-    private static Class<?> addMethod(ClassFile file, ClassLoader loader, MethodInfo mInfo, ClassDataBuilder builder, CodeAttribute bytecode, boolean staticMethod, Class oldClass) {
+    private static Class<?> addMethod(ClassFile file, ClassLoader loader, MethodInfo mInfo, ClassDataBuilder builder, CodeAttribute bytecode, Map<SpecialisedDelegator, CodeAttribute> delegators, boolean staticMethod, Class oldClass) {
         int methodCount = MethodIdentifierStore.instance().getMethodNumber(mInfo.getName(), mInfo.getDescriptor());
         try {
+            // the choice only depends on the descriptor, so the proxy and any overriding
+            // subclass will always agree on which delegator to use
+            final SpecialisedDelegator delegator = SpecialisedDelegator.forMethod(mInfo.getDescriptor());
             if ((AccessFlag.ABSTRACT & mInfo.getAccessFlags()) == 0) {
                 // abstract methods don't get a body
-                generateBoxedConditionalCodeBlock(methodCount, mInfo, file.getConstPool(), bytecode, staticMethod, false);
+                if (delegator == null) {
+                    generateBoxedConditionalCodeBlock(methodCount, mInfo, file.getConstPool(), bytecode, staticMethod, false, null);
+                } else {
+                    generateBoxedConditionalCodeBlock(methodCount, mInfo, file.getConstPool(), delegators.get(delegator), staticMethod, false, delegator);
+                }
             }
-            String proxyName = generateProxyInvocationBytecode(mInfo, methodCount, file.getName(), loader, staticMethod, file.isInterface());
+            String proxyName = generateProxyInvocationBytecode(mInfo, methodCount, file.getName(), loader, staticMethod, file.isInterface(), delegator);
             ClassDataStore.instance().registerProxyName(oldClass, proxyName);
             String newMethodDesc = mInfo.getDescriptor();
             if (!staticMethod) {
                 newMethodDesc = "(L" + Descriptor.toJvmName(file.getName()) + ";" + newMethodDesc.substring(1);
             }
-            Transformer.getManipulator().replaceVirtualMethodInvokationWithStatic(file.getName(), proxyName, mInfo.getName(), mInfo.getDescriptor(), newMethodDesc, loader);
+            Transformer.getManipulator().replaceAddedMethodInvokation(file.getName(), proxyName, mInfo.getName(), mInfo.getDescriptor(), newMethodDesc, loader);
 
             MethodData md = builder.addFakeMethod(mInfo.getName(), mInfo.getDescriptor(), proxyName, mInfo.getAccessFlags());
             ClassDataStore.instance().registerReplacedMethod(proxyName, md);
@@ -460,9 +524,10 @@ public class MethodReplacer {
      * @param mInfo
      * @param methodConstPool
      * @param addedMethod
+     * @param delegator the specialised delegator the code is being added to, or null if it is being added to a boxed delegator
      * @throws BadBytecode
      */
-    private static void generateBoxedConditionalCodeBlock(int methodNumber, MethodInfo mInfo, ConstPool methodConstPool, CodeAttribute addedMethod, boolean staticMethod, boolean constructor)
+    private static void generateBoxedConditionalCodeBlock(int methodNumber, MethodInfo mInfo, ConstPool methodConstPool, CodeAttribute addedMethod, boolean staticMethod, boolean constructor, SpecialisedDelegator delegator)
             throws BadBytecode {
 
         // we need to insert a conditional
@@ -478,8 +543,15 @@ public class MethodReplacer {
         bc.addOpcode(Opcode.IF_ICMPNE);
 
         // now we need to fix local variables and unbox parameters etc
-        int addedCodeLength = mangleParameters(staticMethod, constructor, ca, mInfo.getDescriptor(), ca.getMaxLocals());
-        int newMax = ca.getMaxLocals() + 2;
+        final int addedCodeLength;
+        int newMax;
+        if (delegator == null) {
+            addedCodeLength = mangleParameters(staticMethod, constructor, ca, mInfo.getDescriptor(), ca.getMaxLocals());
+            newMax = ca.getMaxLocals() + 2;
+        } else {
+            addedCodeLength = mangleRegisters(staticMethod, ca, mInfo.getDescriptor());
+            newMax = ca.getMaxLocals() + SpecialisedDelegator.PARAMETER_SLOTS;
+        }
         if (constructor) {
             // for the extra
             newMax++;
@@ -514,7 +586,9 @@ public class MethodReplacer {
 
         // now we need to make sure the function is returning an object
         // rewriteFakeMethod makes sure that the return type is properly boxed
-        if (!constructor) {
+        if (delegator != null) {
+            SpecialisedDelegator.rewriteReturns(addedMethod.iterator(), mInfo.getDescriptor());
+        } else if (!constructor) {
             MethodReturnRewriter.rewriteFakeMethod(addedMethod.iterator(), mInfo.getDescriptor());
         }
 
@@ -572,7 +646,7 @@ public class MethodReplacer {
         int methodCount = MethodIdentifierStore.instance().getMethodNumber(mInfo.getName(), mInfo.getDescriptor());
 
         try {
-            generateBoxedConditionalCodeBlock(methodCount, mInfo, file.getConstPool(), bytecode, false, true);
+            generateBoxedConditionalCodeBlock(methodCount, mInfo, file.getConstPool(), bytecode, false, true, null);
             String proxyName = generateFakeConstructorBytecode(mInfo, file.getConstPool(), methodCount, file.getName(), loader);
             ClassDataStore.instance().registerProxyName(oldClass, proxyName);
             Transformer.getManipulator().rewriteConstructorAccess(file.getName(), mInfo.getDescriptor(), methodCount, loader);
@@ -664,6 +738,25 @@ public class MethodReplacer {
         }
     }
 
+    /**
+     * Takes method parameters out of the registers of a {@link SpecialisedDelegator} and puts them into local variables
+     * in the correct location
+     *
+     * @return the length of the added code
+     */
+    private static int mangleRegisters(boolean staticMethod, CodeAttribute attribute, String methodSigniture) {
+        try {
+            // non static methods have a this pointer as the first argument
+            final int offset = staticMethod ? 0 : 1;
+            attribute.insertLocalVar(offset, SpecialisedDelegator.PARAMETER_SLOTS);
+            final Bytecode code = SpecialisedDelegator.unpackRegisters(attribute.getConstPool(), methodSigniture, offset, offset + SpecialisedDelegator.PARAMETER_SLOTS);
+            attribute.iterator().insert(0, code.get());
+            return code.length();
+        } catch (BadBytecode e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Takes method parameters out of an array and puts them into local variables in the correct location. Also
      * deals with unboxing if necessary
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fakereplace.com.google.common.collect.MapMaker;
+
+/**
+ * Bootstrap for the invokedynamic call sites that the MethodInvokationManipulator emits in place of
+ * redirected method calls in java 7 class files.
+ * <p/>
+ * All call sites for a given redirection are tracked, so when the redirection changes they are simply
+ * re-pointed rather than every caller having to be retransformed. A call site that has been re-pointed
+ * resolves its new target the first time it is invoked.
+ */
+public class RedirectionBootstrap {
+
+    public static final String BOOTSTRAP_METHOD_NAME = "bootstrap";
+
+    private static final ClassLoader NULL_LOADER = new ClassLoader() {
+    };
+
+    private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, Redirection>> redirections = new MapMaker().weakKeys().makeMap();
+
+    private static final MethodHandle RELINK;
+
+    static {
+        try {
+            RELINK = MethodHandles.lookup().findStatic(RedirectionBootstrap.class, "relink", MethodType.methodType(Object.class, RedirectionCallSite.class, Object[].class));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String oldClass, String methodDesc) {
+        final ClassLoader callerLoader = lookup.lookupClass().getClassLoader();
+        final RedirectionCallSite site = new RedirectionCallSite(type, callerLoader);
+        final Redirection redirection = findRedirection(callerLoader, key(oldClass, name, methodDesc));
+        synchronized (redirection) {
+            redirection.addSite(site);
+            site.unlink(redirection);
+        }
+        return site;
+    }
+
+    /**
+     * Points all call sites for the given method at a static method on another class
+     */
+    public static void redirect(ClassLoader loader, String oldClass, String methodName, String methodDesc, String newClass, String newMethodName) {
+        final Redirection redirection = getRedirection(loader, key(oldClass, methodName, methodDesc));
+        synchronized (redirection) {
+            redirection.newClass = newClass;
+            redirection.newMethodName = newMethodName;
+            unlinkAll(redirection);
+        }
+    }
+
+    /**
+     * Removes all redirections for methods on the given class. Any call sites that are still bound will throw
+     * {@link NoSuchMethodError} when next invoked, as the method they were calling no longer exists.
+     */
+    public static void clear(ClassLoader loader, String oldClass) {
+        final ConcurrentMap<String, Redirection> loaderRedirections = redirections.get(loader == null ? NULL_LOADER : loader);
+        if (loaderRedirections == null) {
+            return;
+        }
+        final String prefix = oldClass + ".";
+        for (Map.Entry<String, Redirection> entry : loaderRedirections.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                final Redirection redirection = entry.getValue();
+                synchronized (redirection) {
+                    redirection.newClass = null;
+                    redirection.newMethodName = null;
+                    unlinkAll(redirection);
+                }
+            }
+        }
+    }
+
+    private static void unlinkAll(Redirection redirection) {
+        final List<MutableCallSite> sites = new ArrayList<MutableCallSite>();
+        final Iterator<WeakReference<RedirectionCallSite>> it = redirection.sites.iterator();
+        while (it.hasNext()) {
+            final RedirectionCallSite site = it.next().get();
+            if (site == null) {
+                it.remove();
+            } else {
+                site.unlink(redirection);
+                sites.add(site);
+            }
+        }
+        if (!sites.isEmpty()) {
+            MutableCallSite.syncAll(sites.toArray(new MutableCallSite[sites.size()]));
+        }
+    }
+
+    /**
+     * finds the redirection that applies to a caller, using the same parent first rules as the
+     * ManipulationDataStore. If none exists an unbound one is registered against the callers loader.
+     */
+    private static Redirection findRedirection(ClassLoader callerLoader, String key) {
+        ClassLoader loader = callerLoader;
+        while (loader != null) {
+            final ConcurrentMap<String, Redirection> loaderRedirections = redirections.get(loader);
+            if (loaderRedirections != null && loaderRedirections.containsKey(key)) {
+                return loaderRedirections.get(key);
+            }
+            loader = loader.getParent();
+        }
+        final ConcurrentMap<String, Redirection> loaderRedirections = redirections.get(NULL_LOADER);
+        if (loaderRedirections != null && loaderRedirections.containsKey(key)) {
+            return loaderRedirections.get(key);
+        }
+        return getRedirection(callerLoader, key);
+    }
+
+    private static Redirection getRedirection(ClassLoader loader, String key) {
+        if (loader == null) {
+            loader = NULL_LOADER;
+        }
+        ConcurrentMap<String, Redirection> loaderRedirections = redirections.get(loader);
+        if (loaderRedirections == null) {
+            loaderRedirections = new MapMaker().makeMap();
+            final ConcurrentMap<String, Redirection> existing = redirections.putIfAbsent(loader, loaderRedirections);
+            if (existing != null) {
+                loaderRedirections = existing;
+            }
+        }
+        Redirection redirection = loaderRedirections.get(key);
+        if (redirection == null) {
+            redirection = new Redirection(key);
+            final Redirection existing = loaderRedirections.putIfAbsent(key, redirection);
+            if (existing != null) {
+                redirection = existing;
+            }
+        }
+        return redirection;
+    }
+
+    private static String key(String oldClass, String methodName, String methodDesc) {
+        return oldClass.replace('/', '.') + "." + methodName + methodDesc;
+    }
+
+    private static Object relink(RedirectionCallSite site, Object[] args) throws Throwable {
+        final MethodHandle target = site.link();
+        return target.invokeWithArguments(args);
+    }
+
+    private static final class Redirection {
+        private static final int MIN_PURGE_SIZE = 16;
+
+        private final String key;
+        private final List<WeakReference<RedirectionCallSite>> sites = new ArrayList<WeakReference<RedirectionCallSite>>();
+        private int purgeSize = MIN_PURGE_SIZE;
+        private String newClass;
+        private String newMethodName;
+
+        private Redirection(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Adds a call site, dropping the sites that have been collected once the list has doubled in size since
+         * it was last purged. Must be called while holding the lock on this redirection.
+         */
+        private void addSite(RedirectionCallSite site) {
+            if (sites.size() >= purgeSize) {
+                final Iterator<WeakReference<RedirectionCallSite>> it = sites.iterator();
+                while (it.hasNext()) {
+                    if (it.next().get() == null) {
+                        it.remove();
+                    }
+                }
+                purgeSize = Math.max(MIN_PURGE_SIZE, sites.size() * 2);
+            }
+            sites.add(new WeakReference<RedirectionCallSite>(site));
+        }
+    }
+
+    private static final class RedirectionCallSite extends MutableCallSite {
+
+        private final WeakReference<ClassLoader> callerLoader;
+        private final boolean bootstrapCaller;
+        private volatile Redirection redirection;
+
+        private RedirectionCallSite(MethodType type, ClassLoader callerLoader) {
+            super(type);
+            this.callerLoader = new WeakReference<ClassLoader>(callerLoader);
+            this.bootstrapCaller = callerLoader == null;
+        }
+
+        /**
+         * sets the target to a handle that will resolve the current redirection when next called
+         */
+        private void unlink(Redirection redirection) {
+            this.redirection = redirection;
+            setTarget(RELINK.bindTo(this).asCollector(Object[].class, type().parameterCount()).asType(type()));
+        }
+
+        private MethodHandle link() throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+            final Redirection redirection = this.redirection;
+            final String newClass;
+            final String newMethodName;
+            synchronized (redirection) {
+                newClass = redirection.newClass;
+                newMethodName = redirection.newMethodName;
+            }
+            if (newClass == null) {
+                throw new NoSuchMethodError(redirection.key);
+            }
+            final ClassLoader loader = callerLoader.get();
+            if (loader == null && !bootstrapCaller) {
+                throw new IllegalStateException("ClassLoader for call site has been collected " + redirection.key);
+            }
+            final Class<?> clazz = Class.forName(newClass.replace('/', '.'), false, loader);
+            final Method method = clazz.getDeclaredMethod(newMethodName, type().parameterArray());
+            method.setAccessible(true);
+            final MethodHandle target = MethodHandles.lookup().unreflect(method).asType(type());
+            synchronized (redirection) {
+                // only install the target if we have not been re-pointed in the meantime
+                if (this.redirection == redirection && newClass.equals(redirection.newClass) && newMethodName.equals(redirection.newMethodName)) {
+                    setTarget(target);
+                }
+            }
+            return target;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.fakereplace.api.environment.CurrentEnvironment;
 import org.fakereplace.core.Constants;
+import org.fakereplace.core.SpecialisedDelegator;
 
 public class VirtualDelegator {
 
@@ -70,8 +71,13 @@ public class VirtualDelegator {
 
     public static Object run(Object val, String methodName, String methodDesc, Object[] params) {
         try {
-            Method meth = val.getClass().getMethod(Constants.ADDED_METHOD_NAME, int.class, Object[].class);
             int methodIdentifier = MethodIdentifierStore.instance().getMethodNumber(methodName, methodDesc);
+            final SpecialisedDelegator delegator = SpecialisedDelegator.forMethod(methodDesc);
+            if (delegator != null) {
+                Method meth = val.getClass().getMethod(delegator.getMethodName(false), SpecialisedDelegator.PARAMETER_TYPES);
+                return SpecialisedDelegator.fromRegister(methodDesc, meth.invoke(val, SpecialisedDelegator.toRegisters(methodIdentifier, methodDesc, params)));
+            }
+            Method meth = val.getClass().getMethod(Constants.ADDED_METHOD_NAME, int.class, Object[].class);
             return meth.invoke(val, methodIdentifier, params);
         } catch (Exception e) {
             throw new RuntimeException(e);
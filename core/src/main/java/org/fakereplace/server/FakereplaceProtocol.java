@@ -22,6 +22,8 @@ package org.fakereplace.server;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassDefinition;
 import java.net.Socket;
@@ -34,6 +36,7 @@ import java.util.Set;
 
 import org.fakereplace.api.AttachmentKeys;
 import org.fakereplace.api.Attachments;
+import org.fakereplace.api.RetransformProgressListener;
 import org.fakereplace.api.environment.ChangedClasses;
 import org.fakereplace.api.environment.CurrentEnvironment;
 import org.fakereplace.core.Agent;
@@ -66,6 +69,17 @@ import org.fakereplace.replacement.AddedClass;
  * class name
  * class bytes length
  * class bytes
+ * <p/>
+ * Server -
+ * progress (0 or more times)
+ * 2 (int)
+ * classes retransformed (int)
+ * total classes to retransform (int)
+ * result (int), 0 on success
+ * <p/>
+ * Class bytes have to be held in memory until the redefinition is performed, as all classes must be redefined
+ * atomically. Resources are streamed straight to temporary files in fixed size chunks and are never held in memory
+ * as a whole.
  *
  * @author Stuart Douglas
  */
@@ -73,8 +87,17 @@ public class FakereplaceProtocol {
 
     private static final Logger log = Logger.getLogger(FakereplaceProtocol.class);
 
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int RESULT_SUCCESS = 0;
+
+    private static final int RESULT_FAILURE = 1;
+
+    private static final int RESULT_PROGRESS = 2;
+
     public static void run(Socket socket) {
         DataOutputStream output = null;
+        final Map<String, File> replacedResources = new HashMap<String, File>();
         try {
             log.trace("Fakereplace update is running");
             final DataInputStream input = new DataInputStream(socket.getInputStream());
@@ -83,7 +106,7 @@ public class FakereplaceProtocol {
             final Map<String, Long> resources = new HashMap<String, Long>();
             int magic = input.readInt();
             if (magic != 0xCAFEDEAF) {
-                System.err.println("Fakereplace server error, wrong magic number");
+                log.error("Fakereplace server error, wrong magic number");
                 return;
             }
             final String archiveName = readString(input);
@@ -119,14 +142,14 @@ public class FakereplaceProtocol {
             final Set<ClassDefinition> classDefinitions = new HashSet<ClassDefinition>();
             final Set<Class<?>> replacedClasses = new HashSet<Class<?>>();
             final List<AddedClass> addedClassList = new ArrayList<AddedClass>();
+            long classBytes = 0;
             int noClasses = input.readInt();
             for (int i = 0; i < noClasses; ++i) {
                 final String className = readString(input);
                 int length = input.readInt();
                 byte[] buffer = new byte[length];
-                for (int j = 0; j < length; ++j) {
-                    buffer[j] = (byte) input.read();
-                }
+                input.readFully(buffer);
+                classBytes += length;
                 final Class theClass = classMap.get(className);
                 if (theClass != null) {
                     classDefinitions.add(new ClassDefinition(theClass, buffer));
@@ -136,33 +159,55 @@ public class FakereplaceProtocol {
                 }
             }
 
-            final Map<String, byte[]> replacedResources = new HashMap<String, byte[]>();
-
+            long resourceBytes = 0;
             int noResources = input.readInt();
             for (int i = 0; i < noResources; ++i) {
                 final String resourceName = readString(input);
                 int length = input.readInt();
-                byte[] buffer = new byte[length];
-                for (int j = 0; j < length; ++j) {
-                    buffer[j] = (byte) input.read();
-                }
-                replacedResources.put(resourceName, buffer);
+                replacedResources.put(resourceName, spool(input, length));
+                resourceBytes += length;
             }
+            log.info("Fakereplace received " + noClasses + " classes (" + classBytes + " bytes held in memory) and " + noResources + " resources (" + resourceBytes + " bytes spooled to disk)");
 
             final Attachments attachments = new Attachments();
             attachments.set(AttachmentKeys.DEPLOYMENT_NAME, archiveName);
+            final DataOutputStream progressOutput = output;
+            attachments.set(AttachmentKeys.RETRANSFORM_PROGRESS, new RetransformProgressListener() {
+                @Override
+                public void progress(final int retransformed, final int total) {
+                    try {
+                        progressOutput.writeInt(RESULT_PROGRESS);
+                        progressOutput.writeInt(retransformed);
+                        progressOutput.writeInt(total);
+                        progressOutput.flush();
+                    } catch (IOException e) {
+                        log.error("Could not send retransformation progress to client", e);
+                    }
+                }
+
+                @Override
+                public void failed(final int retransformed, final int total) {
+                    //the client is sent the failure result once the replacement has been aborted
+                    log.error("Retransformation failed after " + retransformed + " of " + total + " classes");
+                }
+            });
 
             Agent.redefine(classDefinitions.toArray( new ClassDefinition[classDefinitions.size()]), addedClassList.toArray(new AddedClass[addedClassList.size()]), attachments);
             CurrentEnvironment.getEnvironment().updateResource(archiveName, replacedResources);
-            output.writeInt(0);
+            output.writeInt(RESULT_SUCCESS);
         } catch (Exception e) {
             try {
-                output.writeInt(1);
+                output.writeInt(RESULT_FAILURE);
             } catch (IOException e1) {
                 //ignore
             }
             e.printStackTrace();
         } finally {
+            for (File file : replacedResources.values()) {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
             try {
                 //write the result to
                 socket.close();
@@ -172,6 +217,34 @@ public class FakereplaceProtocol {
         }
     }
 
+    /**
+     * Copies the next <code>length</code> bytes of the stream into a temporary file
+     */
+    private static File spool(final DataInputStream input, final int length) throws IOException {
+        final File file = File.createTempFile("fakereplace", ".resource");
+        final FileOutputStream out = new FileOutputStream(file);
+        boolean ok = false;
+        try {
+            final byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(length, 1))];
+            int remaining = length;
+            while (remaining > 0) {
+                int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Unexpected end of stream reading resource");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            ok = true;
+        } finally {
+            out.close();
+            if (!ok) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
     private static void readAvailable(final DataInputStream input, final Map<String, Long> resources) throws IOException {
         int noResources = input.readInt();
         for (int i = 0; i < noResources; ++i) {
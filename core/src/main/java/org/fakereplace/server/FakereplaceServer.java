@@ -25,11 +25,15 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 
+import org.fakereplace.logging.Logger;
+
 /**
  * @author Stuart Douglas
  */
 public class FakereplaceServer implements Runnable {
 
+    private static final Logger log = Logger.getLogger(FakereplaceServer.class);
+
     private final int port;
 
     public FakereplaceServer(int port) {
@@ -40,20 +44,18 @@ public class FakereplaceServer implements Runnable {
     public void run() {
         try {
             final ServerSocket socket = new ServerSocket(port);
-            System.out.println("Fakereplace listening on port " + port);
+            log.info("Fakereplace listening on port " + port);
             while (true) {
                 try {
                     final Socket realSocket = socket.accept();
                     FakereplaceProtocol.run(realSocket);
                 } catch (Throwable t) {
-                    System.err.println("Fakereplace server error");
-                    t.printStackTrace();
+                    log.error("Fakereplace server error", t);
                 }
             }
 
         } catch (IOException e) {
-            System.err.println("Fakereplace server could not start");
-            e.printStackTrace();
+            log.error("Fakereplace server could not start", e);
         }
     }
 }
@@ -45,6 +45,7 @@ import org.fakereplace.api.ClassChangeAware;
 import org.fakereplace.api.Extension;
 import org.fakereplace.api.environment.CurrentEnvironment;
 import org.fakereplace.api.environment.Environment;
+import org.fakereplace.classloading.ClassLookupManager;
 import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.core.AgentOption;
 import org.fakereplace.core.AgentOptions;
@@ -81,6 +82,7 @@ public class MainTransformer implements ClassFileTransformer {
         final Environment environment = CurrentEnvironment.getEnvironment();
         if (integrationClassTriggers.containsKey(className)) {
             integrationClassloader.add(loader);
+            ClassLookupManager.registerLoader(loader);
             // we need to load the class in another thread
             // otherwise it will not go through the javaagent
             final Extension extension = integrationClassTriggers.get(className);
@@ -117,6 +119,7 @@ public class MainTransformer implements ClassFileTransformer {
         final ClassFile file;
         try {
             file = new ClassFile(new DataInputStream(new ByteArrayInputStream(classfileBuffer)));
+            ReferenceIndex.recordReferences(loader, file, environment);
             for (final FakereplaceTransformer transformer : transformers) {
                 if (transformer.transform(loader, className, classBeingRedefined, protectionDomain, file)) {
                     changed = true;
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.transformation;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import org.fakereplace.api.environment.Environment;
+import org.fakereplace.com.google.common.collect.MapMaker;
+import org.fakereplace.core.Agent;
+import org.fakereplace.core.BuiltinClassData;
+import org.fakereplace.data.BaseClassData;
+import org.fakereplace.data.ClassDataStore;
+import org.fakereplace.logging.Logger;
+import org.fakereplace.manip.util.ManipulationDataStore;
+import org.fakereplace.util.DescriptorUtils;
+
+/**
+ * Reverse index of member references, built from the constant pool of replaceable classes as they are transformed.
+ * <p/>
+ * References are keyed by member signature, methods by name and descriptor and fields by name alone, as this is how
+ * the manipulators match them. The owner named in the constant pool is kept with each reference and is resolved
+ * against the class that declares the member when the index is queried, by walking the recorded superclass chain,
+ * so a call made through a subclass is matched as well.
+ * <p/>
+ * Each loader holds at most {@link #MAX_REFERENCES} references. Once a loader has more than this its index is
+ * dropped, and queries against it give the same answer as if there was no index at all.
+ */
+public class ReferenceIndex {
+
+    private static final Logger log = Logger.getLogger(ReferenceIndex.class);
+
+    static final int MAX_REFERENCES = 500000;
+
+    private static final int MAX_HIERARCHY_DEPTH = 100;
+
+    private static final ConcurrentMap<ClassLoader, LoaderIndex> indexes = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * superclasses that were not retransformed, as nothing that was loaded could call the overridden method
+     */
+    private static final Collection<PendingRetransform> pending = new CopyOnWriteArrayList<PendingRetransform>();
+
+    private static final ExecutorService retransformExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("Fakereplace Deferred Retransform Thread");
+            return thread;
+        }
+    });
+
+    private ReferenceIndex() {
+
+    }
+
+    public static String methodKey(String methodName, String descriptor) {
+        return methodName + descriptor;
+    }
+
+    public static String fieldKey(String fieldName) {
+        return fieldName;
+    }
+
+    /**
+     * Records the member references of a class that is being loaded or retransformed, replacing any
+     * references that were previously recorded for it.
+     */
+    public static void recordReferences(ClassLoader loader, ClassFile file, Environment environment) {
+        if (loader == null) {
+            //bootstrap classes are never retransformed because of a change
+            return;
+        }
+        final String className = file.getName();
+        if (!environment.isClassReplaceable(className, loader)) {
+            //classes that cannot be replaced are not retransformed because of a change
+            final LoaderIndex index = indexes.get(loader);
+            if (index != null) {
+                index.remove(className);
+            }
+            return;
+        }
+        LoaderIndex index = indexes.get(loader);
+        if (index == null) {
+            index = new LoaderIndex();
+            final LoaderIndex existing = indexes.putIfAbsent(loader, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        if (index.isOverflowed()) {
+            return;
+        }
+        final Set<Reference> references = new HashSet<Reference>();
+        final ConstPool pool = file.getConstPool();
+        for (int i = 1; i < pool.getSize(); ++i) {
+            final int tag = pool.getTag(i);
+            final String owner;
+            final String signature;
+            if (tag == ConstPool.CONST_Methodref) {
+                owner = pool.getMethodrefClassName(i);
+                signature = methodKey(pool.getMethodrefName(i), pool.getMethodrefType(i));
+            } else if (tag == ConstPool.CONST_InterfaceMethodref) {
+                owner = pool.getInterfaceMethodrefClassName(i);
+                signature = methodKey(pool.getInterfaceMethodrefName(i), pool.getInterfaceMethodrefType(i));
+            } else if (tag == ConstPool.CONST_Fieldref) {
+                owner = pool.getFieldrefClassName(i);
+                signature = fieldKey(pool.getFieldrefName(i));
+            } else {
+                continue;
+            }
+            if (owner.charAt(0) == '[' || BuiltinClassData.skipInstrumentation(owner)) {
+                continue;
+            }
+            final BaseClassData ownerData = ClassDataStore.instance().getRecordedBaseClassData(loader, owner);
+            if (ownerData != null && !ownerData.isReplaceable()) {
+                continue;
+            }
+            references.add(new Reference(owner, signature));
+        }
+        if (!index.record(className, references)) {
+            log.info("More than " + MAX_REFERENCES + " member references recorded for " + loader + ", these classes will not be indexed");
+        }
+        if (!pending.isEmpty()) {
+            triggerPendingRetransforms(loader, references);
+        }
+    }
+
+    /**
+     * Returns the loaded classes that reference any of the given members of the changed class, either directly
+     * or through one of its subclasses. Members are looked up in the index of every ClassLoader that can see
+     * the loader of the changed class.
+     *
+     * @param memberLoader the loader of the class that declares the members
+     * @param className    the class that declares the members
+     * @param members      the member signatures, as created by {@link #methodKey(String, String)} and
+     *                     {@link #fieldKey(String)}
+     */
+    public static Set<Class<?>> getReferencingClasses(ClassLoader memberLoader, String className, Collection<String> members) {
+        final Set<Class<?>> ret = new HashSet<Class<?>>();
+        if (members.isEmpty()) {
+            return ret;
+        }
+        final String declaringClass = className.replace('/', '.');
+        for (Map.Entry<ClassLoader, LoaderIndex> entry : indexes.entrySet()) {
+            final ClassLoader loader = entry.getKey();
+            if (!ManipulationDataStore.includeClassLoader(loader, memberLoader)) {
+                continue;
+            }
+            for (String referencingClass : entry.getValue().getReferencingClasses(loader, members, declaringClass)) {
+                try {
+                    ret.add(Class.forName(referencingClass, false, loader));
+                } catch (ClassNotFoundException e) {
+                    //the class was transformed but never defined
+                } catch (LinkageError e) {
+                    //the class was transformed but never defined
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decides if a superclass that declares a method that has been added to the changed class needs to be
+     * retransformed, so that virtual calls to the method are delegated to the new implementation.
+     * <p/>
+     * This is only needed if a loaded class can call the method on an instance of the changed class, that is
+     * through a supertype or a subtype of the changed class. If no loaded class can do this the retransformation
+     * is deferred until a class that references the method is loaded. If the method is declared by a supertype
+     * that is not replaceable there is no way of knowing who calls it, so the superclass is always retransformed.
+     *
+     * @param changedClass the class that is being replaced
+     * @param superclass   the superclass whose method has been overridden
+     * @param members      the added and removed members of the changed class
+     * @return true if the superclass must be retransformed now
+     */
+    public static boolean isRetransformRequired(Class<?> changedClass, Class<?> superclass, Collection<String> members) {
+        final Set<String> signatures = new HashSet<String>();
+        for (Method method : superclass.getDeclaredMethods()) {
+            final String signature = methodKey(method.getName(), DescriptorUtils.getDescriptor(method));
+            if (members.contains(signature)) {
+                signatures.add(signature);
+            }
+        }
+        if (signatures.isEmpty()) {
+            return true;
+        }
+        final Set<String> supertypes = new HashSet<String>();
+        if (!addSupertypes(changedClass, signatures, supertypes)) {
+            return true;
+        }
+        for (Map.Entry<ClassLoader, LoaderIndex> entry : indexes.entrySet()) {
+            if (entry.getValue().isReferenced(entry.getKey(), signatures, supertypes, changedClass.getName())) {
+                return true;
+            }
+        }
+        pending.add(new PendingRetransform(changedClass, superclass, signatures, supertypes));
+        return false;
+    }
+
+    /**
+     * Adds the names of the class and all its supertypes.
+     *
+     * @return false if one of the signatures is declared by a supertype that is not replaceable
+     */
+    private static boolean addSupertypes(final Class<?> clazz, final Set<String> signatures, final Set<String> supertypes) {
+        if (!supertypes.add(clazz.getName())) {
+            return true;
+        }
+        if (!isReplaceable(clazz)) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (signatures.contains(methodKey(method.getName(), DescriptorUtils.getDescriptor(method)))) {
+                    return false;
+                }
+            }
+        }
+        if (clazz.getSuperclass() != null && !addSupertypes(clazz.getSuperclass(), signatures, supertypes)) {
+            return false;
+        }
+        for (Class<?> iface : clazz.getInterfaces()) {
+            if (!addSupertypes(iface, signatures, supertypes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReplaceable(final Class<?> clazz) {
+        if (clazz.getClassLoader() == null) {
+            return false;
+        }
+        final BaseClassData data = ClassDataStore.instance().getRecordedBaseClassData(clazz.getClassLoader(), clazz.getName());
+        return data != null && data.isReplaceable();
+    }
+
+    /**
+     * @return true if a reference made through the owner class resolves to a member of the declaring class. The owner
+     *         is also assumed to resolve to the declaring class if its superclass chain cannot be followed, as
+     *         the owner has not been loaded yet.
+     */
+    private static boolean resolvesTo(final ClassLoader loader, final String owner, final String declaringClass) {
+        String current = owner;
+        for (int depth = 0; current != null && depth < MAX_HIERARCHY_DEPTH; ++depth) {
+            if (current.equals(declaringClass)) {
+                return true;
+            }
+            if (BuiltinClassData.skipInstrumentation(current)) {
+                return false;
+            }
+            final BaseClassData data = ClassDataStore.instance().getRecordedBaseClassData(loader, current);
+            if (data == null) {
+                return true;
+            }
+            current = data.getSuperClassName();
+        }
+        return false;
+    }
+
+    private static void triggerPendingRetransforms(final ClassLoader loader, final Set<Reference> references) {
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        for (PendingRetransform retransform : pending) {
+            final Class<?> changedClass = retransform.changedClass.get();
+            final Class<?> superclass = retransform.superclass.get();
+            if (changedClass == null || superclass == null) {
+                pending.remove(retransform);
+                continue;
+            }
+            for (Reference reference : references) {
+                if (retransform.signatures.contains(reference.signature)
+                        && (retransform.supertypes.contains(reference.owner) || resolvesTo(loader, reference.owner, changedClass.getName()))) {
+                    pending.remove(retransform);
+                    classes.add(superclass);
+                    break;
+                }
+            }
+        }
+        if (classes.isEmpty()) {
+            return;
+        }
+        //we are inside a ClassFileTransformer, so the retransformation cannot happen on this thread
+        retransformExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Agent.getInstrumentation().retransformClasses(classes.toArray(new Class[classes.size()]));
+                } catch (Exception e) {
+                    log.error("Failed to retransform " + classes, e);
+                }
+            }
+        });
+    }
+
+    private static final class Reference {
+
+        private final String owner;
+
+        private final String signature;
+
+        Reference(final String owner, final String signature) {
+            this.owner = owner;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Reference)) {
+                return false;
+            }
+            final Reference other = (Reference) o;
+            return owner.equals(other.owner) && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner.hashCode() + signature.hashCode();
+        }
+    }
+
+    private static final class PendingRetransform {
+
+        private final WeakReference<Class<?>> changedClass;
+
+        private final WeakReference<Class<?>> superclass;
+
+        private final Set<String> signatures;
+
+        private final Set<String> supertypes;
+
+        PendingRetransform(final Class<?> changedClass, final Class<?> superclass, final Set<String> signatures, final Set<String> supertypes) {
+            this.changedClass = new WeakReference<Class<?>>(changedClass);
+            this.superclass = new WeakReference<Class<?>>(superclass);
+            this.signatures = signatures;
+            this.supertypes = supertypes;
+        }
+    }
+
+    private static final class LoaderIndex {
+
+        private final Map<String, Set<Reference>> referencesByClass = new HashMap<String, Set<Reference>>();
+
+        /**
+         * signature -> owner -> referencing classes
+         */
+        private final Map<String, Map<String, Set<String>>> classesBySignature = new HashMap<String, Map<String, Set<String>>>();
+
+        private int size;
+
+        private volatile boolean overflowed;
+
+        boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * @return false if the index has just overflowed
+         */
+        synchronized boolean record(final String className, final Set<Reference> references) {
+            if (overflowed) {
+                return true;
+            }
+            remove(className);
+            if (references.isEmpty()) {
+                return true;
+            }
+            if (size + references.size() > MAX_REFERENCES) {
+                overflowed = true;
+                referencesByClass.clear();
+                classesBySignature.clear();
+                size = 0;
+                return false;
+            }
+            referencesByClass.put(className, references);
+            size += references.size();
+            for (Reference reference : references) {
+                Map<String, Set<String>> owners = classesBySignature.get(reference.signature);
+                if (owners == null) {
+                    owners = new HashMap<String, Set<String>>();
+                    classesBySignature.put(reference.signature, owners);
+                }
+                Set<String> classes = owners.get(reference.owner);
+                if (classes == null) {
+                    classes = new HashSet<String>();
+                    owners.put(reference.owner, classes);
+                }
+                classes.add(className);
+            }
+            return true;
+        }
+
+        synchronized void remove(final String className) {
+            final Set<Reference> old = referencesByClass.remove(className);
+            if (old == null) {
+                return;
+            }
+            size -= old.size();
+            for (Reference reference : old) {
+                final Map<String, Set<String>> owners = classesBySignature.get(reference.signature);
+                final Set<String> classes = owners.get(reference.owner);
+                classes.remove(className);
+                if (classes.isEmpty()) {
+                    owners.remove(reference.owner);
+                    if (owners.isEmpty()) {
+                        classesBySignature.remove(reference.signature);
+                    }
+                }
+            }
+        }
+
+        synchronized Set<String> getReferencingClasses(final ClassLoader loader, final Collection<String> signatures, final String declaringClass) {
+            final Set<String> ret = new HashSet<String>();
+            for (String signature : signatures) {
+                final Map<String, Set<String>> owners = classesBySignature.get(signature);
+                if (owners == null) {
+                    continue;
+                }
+                for (Map.Entry<String, Set<String>> entry : owners.entrySet()) {
+                    if (resolvesTo(loader, entry.getKey(), declaringClass)) {
+                        ret.addAll(entry.getValue());
+                    }
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * @return true if any of the signatures is referenced through one of the supertypes or a subtype of the
+         *         changed class, or if this index has overflowed
+         */
+        synchronized boolean isReferenced(final ClassLoader loader, final Set<String> signatures, final Set<String> supertypes, final String changedClass) {
+            if (overflowed) {
+                return true;
+            }
+            for (String signature : signatures) {
+                final Map<String, Set<String>> owners = classesBySignature.get(signature);
+                if (owners == null) {
+                    continue;
+                }
+                for (String owner : owners.keySet()) {
+                    if (supertypes.contains(owner) || resolvesTo(loader, owner, changedClass)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -20,13 +20,24 @@
 
 package org.fakereplace.util;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fakereplace.com.google.common.collect.MapMaker;
 
 public class DescriptorUtils {
 
+    /**
+     * resolved parameter types, keyed by the loader that resolved them and then the method descriptor. The classes
+     * are only weakly referenced so the cache does not keep the loader alive.
+     */
+    private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, WeakReference<Class<?>>[]>> argumentClassCache = new MapMaker().weakKeys().makeMap();
+
     public static Method getMethod(String name, String methodDesc, Class actual) {
         try {
             return actual.getMethod(name, argumentStringToClassArray(methodDesc, actual));
@@ -54,6 +65,43 @@ public class DescriptorUtils {
      * @return
      */
     public static Class<?>[] argumentStringToClassArray(String methodDescriptor, Class<?> methodClass) throws ClassNotFoundException {
+        final ClassLoader loader = methodClass.getClassLoader();
+        if (loader == null) {
+            return loadArgumentClasses(methodDescriptor, methodClass);
+        }
+        ConcurrentMap<String, WeakReference<Class<?>>[]> cache = argumentClassCache.get(loader);
+        if (cache == null) {
+            cache = new ConcurrentHashMap<String, WeakReference<Class<?>>[]>();
+            final ConcurrentMap<String, WeakReference<Class<?>>[]> existing = argumentClassCache.putIfAbsent(loader, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        final WeakReference<Class<?>>[] cached = cache.get(methodDescriptor);
+        if (cached != null) {
+            final Class<?>[] ret = new Class<?>[cached.length];
+            int i = 0;
+            for (; i < ret.length; ++i) {
+                ret[i] = cached[i].get();
+                if (ret[i] == null) {
+                    break;
+                }
+            }
+            if (i == ret.length) {
+                return ret;
+            }
+        }
+        final Class<?>[] ret = loadArgumentClasses(methodDescriptor, methodClass);
+        @SuppressWarnings("unchecked")
+        final WeakReference<Class<?>>[] references = new WeakReference[ret.length];
+        for (int i = 0; i < ret.length; ++i) {
+            references[i] = new WeakReference<Class<?>>(ret[i]);
+        }
+        cache.put(methodDescriptor, references);
+        return ret;
+    }
+
+    private static Class<?>[] loadArgumentClasses(String methodDescriptor, Class<?> methodClass) throws ClassNotFoundException {
         int i = 1; // char 0 is a '('
         List<Class<?>> classes = new ArrayList<Class<?>>();
         int arraystart = -1;
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012, Stuart Douglas, and individual contributors as indicated
+ * by the @authors tag.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.fakereplace.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie of string prefixes, used to replace linear <code>startsWith</code> scans over
+ * lists of package names. A trie created with {@link #ofClassNames(String...)} treats '.' and '/'
+ * as the same character, so class names can be matched in either their binary or internal form
+ * without being copied.
+ */
+public final class PrefixTrie {
+
+    private final Node root;
+
+    private final boolean ignoreSeparator;
+
+    private PrefixTrie(final Node root, final boolean ignoreSeparator) {
+        this.root = root;
+        this.ignoreSeparator = ignoreSeparator;
+    }
+
+    public static PrefixTrie of(final String... prefixes) {
+        return build(prefixes, false);
+    }
+
+    public static PrefixTrie ofClassNames(final String... prefixes) {
+        return build(prefixes, true);
+    }
+
+    private static PrefixTrie build(final String[] prefixes, final boolean ignoreSeparator) {
+        final Builder builder = new Builder();
+        for (String prefix : prefixes) {
+            Builder current = builder;
+            for (int i = 0; i < prefix.length(); ++i) {
+                final char c = normalize(prefix.charAt(i), ignoreSeparator);
+                Builder next = current.children.get(c);
+                if (next == null) {
+                    next = new Builder();
+                    current.children.put(c, next);
+                }
+                current = next;
+            }
+            current.terminal = true;
+        }
+        return new PrefixTrie(builder.build(), ignoreSeparator);
+    }
+
+    /**
+     * @return true if any of the prefixes in this trie is a prefix of the given string
+     */
+    public boolean matchesPrefix(final String value) {
+        Node current = root;
+        if (current.terminal) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            current = current.child(normalize(value.charAt(i), ignoreSeparator));
+            if (current == null) {
+                return false;
+            }
+            if (current.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char normalize(final char c, final boolean ignoreSeparator) {
+        return ignoreSeparator && c == '.' ? '/' : c;
+    }
+
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final boolean terminal;
+
+        private Node(final char[] keys, final Node[] children, final boolean terminal) {
+            this.keys = keys;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        Node child(final char c) {
+            if (keys.length == 0) {
+                return null;
+            } else if (keys.length == 1) {
+                return keys[0] == c ? children[0] : null;
+            }
+            final int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    private static final class Builder {
+        private final TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+        private boolean terminal;
+
+        Node build() {
+            final char[] keys = new char[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i++] = entry.getValue().build();
+            }
+            return new Node(keys, nodes, terminal);
+        }
+    }
+}
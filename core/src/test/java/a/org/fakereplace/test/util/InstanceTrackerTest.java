@@ -0,0 +1,61 @@
+/*
+ * Copyright 2011, Stuart Douglas
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package a.org.fakereplace.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.fakereplace.data.InstanceTracker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InstanceTrackerTest {
+
+    @Test
+    public void testHandleIsStable() {
+        int handle = InstanceTracker.handle("a.org.fakereplace.test.util.HandleType");
+        Assert.assertEquals(handle, InstanceTracker.handle("a.org.fakereplace.test.util.HandleType"));
+        Assert.assertTrue(handle != InstanceTracker.handle("a.org.fakereplace.test.util.OtherHandleType"));
+    }
+
+    @Test
+    public void testInstancesAreTracked() {
+        final String type = "a.org.fakereplace.test.util.TrackedType";
+        final int handle = InstanceTracker.handle(type);
+        final List<Object> instances = new ArrayList<Object>();
+        for (int i = 0; i < 200; ++i) {
+            Object o = new Object();
+            instances.add(o);
+            InstanceTracker.add(handle, o);
+        }
+        //adding the same instance twice should only report it once
+        InstanceTracker.add(type, instances.get(0));
+        Set<?> snapshot = InstanceTracker.get(type);
+        Assert.assertEquals(200, snapshot.size());
+        for (Object o : instances) {
+            Assert.assertTrue(snapshot.contains(o));
+        }
+    }
+
+    @Test
+    public void testUnknownTypeIsEmpty() {
+        Assert.assertTrue(InstanceTracker.get("a.org.fakereplace.test.util.UnknownType").isEmpty());
+    }
+}
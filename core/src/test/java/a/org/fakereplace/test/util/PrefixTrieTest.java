@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011, Stuart Douglas
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package a.org.fakereplace.test.util;
+
+import org.fakereplace.util.PrefixTrie;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+    @Test
+    public void testPrefixMatching() {
+        PrefixTrie trie = PrefixTrie.of("java/lang", "java/util/concurrent", "org.fakereplace");
+        Assert.assertTrue(trie.matchesPrefix("java/lang/String"));
+        Assert.assertTrue(trie.matchesPrefix("java/lang"));
+        Assert.assertTrue(trie.matchesPrefix("java/util/concurrent/ConcurrentHashMap"));
+        Assert.assertTrue(trie.matchesPrefix("org.fakereplace.core.Agent"));
+        Assert.assertFalse(trie.matchesPrefix("java/util/HashMap"));
+        Assert.assertFalse(trie.matchesPrefix("java/lan"));
+        Assert.assertFalse(trie.matchesPrefix("java.lang.String"));
+        Assert.assertFalse(trie.matchesPrefix(""));
+    }
+
+    @Test
+    public void testClassNameMatchingIgnoresSeparator() {
+        PrefixTrie trie = PrefixTrie.ofClassNames("java/lang", "org.fakereplace");
+        Assert.assertTrue(trie.matchesPrefix("java.lang.String"));
+        Assert.assertTrue(trie.matchesPrefix("java/lang/String"));
+        Assert.assertTrue(trie.matchesPrefix("org/fakereplace/core/Agent"));
+        Assert.assertFalse(trie.matchesPrefix("java.math.BigDecimal"));
+    }
+
+    @Test
+    public void testEmptyTrie() {
+        PrefixTrie trie = PrefixTrie.of();
+        Assert.assertFalse(trie.matchesPrefix("java/lang/String"));
+        Assert.assertFalse(trie.matchesPrefix(""));
+    }
+}
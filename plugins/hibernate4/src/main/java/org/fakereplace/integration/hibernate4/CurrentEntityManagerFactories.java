@@ -22,28 +22,70 @@ package org.fakereplace.integration.hibernate4;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+
+import javax.persistence.metamodel.EntityType;
+
+import org.fakereplace.com.google.common.collect.MapMaker;
 
 /**
+ * Index of the entity manager factories that manage each entity class. The index is updated when a factory is
+ * registered and after it has been reloaded, so lookups do not need to query every factory's metamodel.
+ *
  * @author Stuart Douglas
  */
 public class CurrentEntityManagerFactories {
 
-    private static final Set<FakereplaceEntityManagerFactoryProxy> ENTITY_MANAGERS = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<FakereplaceEntityManagerFactoryProxy, Boolean>()));
+    /**
+     * Guards updates to the index. The entities each factory was last indexed under are held by the factory itself,
+     * so the index does not keep the entity classes, and so their class loader, reachable.
+     */
+    private static final Map<Class<?>, Set<FakereplaceEntityManagerFactoryProxy>> FACTORIES_BY_ENTITY = new MapMaker().weakKeys().makeMap();
 
     public static void registerEntityManager(FakereplaceEntityManagerFactoryProxy proxy) {
-        ENTITY_MANAGERS.add(proxy);
+        index(proxy);
+    }
+
+    /**
+     * Re-indexes the factory against the entities in its current metamodel
+     */
+    public static void index(final FakereplaceEntityManagerFactoryProxy proxy) {
+        final Set<Class<?>> entities = new LinkedHashSet<Class<?>>();
+        for (EntityType<?> type : proxy.getMetamodel().getEntities()) {
+            entities.add(type.getJavaType());
+        }
+        synchronized (FACTORIES_BY_ENTITY) {
+            for (Class<?> entity : proxy.getIndexedEntities()) {
+                if (!entities.contains(entity)) {
+                    final Set<FakereplaceEntityManagerFactoryProxy> factories = FACTORIES_BY_ENTITY.get(entity);
+                    if (factories != null) {
+                        factories.remove(proxy);
+                    }
+                }
+            }
+            proxy.setIndexedEntities(entities);
+            for (Class<?> entity : entities) {
+                Set<FakereplaceEntityManagerFactoryProxy> factories = FACTORIES_BY_ENTITY.get(entity);
+                if (factories == null) {
+                    factories = Collections.newSetFromMap(new MapMaker().weakKeys().<FakereplaceEntityManagerFactoryProxy, Boolean>makeMap());
+                    FACTORIES_BY_ENTITY.put(entity, factories);
+                }
+                factories.add(proxy);
+            }
+        }
     }
 
     public static List<FakereplaceEntityManagerFactoryProxy> getEMFForEntities(final Set<Class<?>> changedClasses) {
-        final List<FakereplaceEntityManagerFactoryProxy> ret = new ArrayList<FakereplaceEntityManagerFactoryProxy>();
-        for (FakereplaceEntityManagerFactoryProxy entityManagerFactory : ENTITY_MANAGERS) {
-            if(entityManagerFactory.containsEntity(changedClasses)) {
-                ret.add(entityManagerFactory);
+        final Set<FakereplaceEntityManagerFactoryProxy> ret = new LinkedHashSet<FakereplaceEntityManagerFactoryProxy>();
+        for (Class<?> changed : changedClasses) {
+            final Set<FakereplaceEntityManagerFactoryProxy> factories = FACTORIES_BY_ENTITY.get(changed);
+            if (factories != null) {
+                ret.addAll(factories);
             }
         }
-        return ret;
+        return new ArrayList<FakereplaceEntityManagerFactoryProxy>(ret);
     }
 }
@@ -20,6 +20,7 @@
 
 package org.fakereplace.integration.hibernate4;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,24 +32,48 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.metamodel.Metamodel;
 import javax.persistence.spi.PersistenceUnitInfo;
 
+import org.fakereplace.com.google.common.collect.MapMaker;
+import org.fakereplace.logging.Logger;
 import org.hibernate.SessionFactory;
 import org.hibernate.ejb.HibernateEntityManagerFactory;
 import org.hibernate.ejb.HibernatePersistence;
 
 /**
+ * Entity manager factory that can be rebuilt when entities change.
+ * <p/>
+ * The replacement factory is built while the old one keeps serving requests, and is then swapped in. The old
+ * factory is closed in the background once the entity managers that were created from it have been closed, or
+ * after {@link #MAX_RETIRE_WAIT} milliseconds if some are never closed.
+ * <p/>
+ * If the schema is created and dropped with the factory (hbm2ddl create-drop) closing the old factory would drop
+ * the schema the new one just created, so in this case the old factory is closed first.
+ *
  * @author Stuart Douglas
  */
 public class FakereplaceEntityManagerFactoryProxy implements EntityManagerFactory, HibernateEntityManagerFactory {
 
-    private volatile EntityManagerFactory delegate;
+    private static final Logger log = Logger.getLogger(FakereplaceEntityManagerFactoryProxy.class);
+
+    private static final String HBM2DDL_AUTO = "hibernate.hbm2ddl.auto";
+
+    private static final long MAX_RETIRE_WAIT = 30000;
+
+    private static final long RETIRE_POLL_INTERVAL = 100;
+
+    private volatile Generation delegate;
 
     private final HibernatePersistence hibernatePersistence;
     private final String persistenceUnitName;
     private final Map properties;
     private final PersistenceUnitInfo persistenceUnitInfo;
 
+    /**
+     * the entities this factory was last indexed under by {@link CurrentEntityManagerFactories}, which guards it
+     */
+    private Set<Class<?>> indexedEntities = Collections.emptySet();
+
     public FakereplaceEntityManagerFactoryProxy(final EntityManagerFactory delegate, final HibernatePersistence hibernatePersistence, final PersistenceUnitInfo persistenceUnitInfo, final Map properties) {
-        this.delegate = delegate;
+        this.delegate = new Generation(delegate);
         this.hibernatePersistence = hibernatePersistence;
         this.properties = properties;
         this.persistenceUnitInfo = persistenceUnitInfo;
@@ -57,7 +82,7 @@ public class FakereplaceEntityManagerFactoryProxy implements EntityManagerFactor
     }
 
     public FakereplaceEntityManagerFactoryProxy(final EntityManagerFactory delegate, final HibernatePersistence hibernatePersistence, final String persistenceUnitName, final Map properties) {
-        this.delegate = delegate;
+        this.delegate = new Generation(delegate);
         this.hibernatePersistence = hibernatePersistence;
         this.properties = properties;
         this.persistenceUnitName = persistenceUnitName;
@@ -65,65 +90,129 @@ public class FakereplaceEntityManagerFactoryProxy implements EntityManagerFactor
         CurrentEntityManagerFactories.registerEntityManager(this);
     }
 
-    public void reload() {
-        delegate.close();
+    public synchronized void reload() {
+        final Generation old = delegate;
+        if (isCreateDrop()) {
+            old.factory.close();
+            delegate = new Generation(createFactory());
+            CurrentEntityManagerFactories.index(this);
+            return;
+        }
+        // if this fails the old factory is still open and in use
+        final EntityManagerFactory replacement = createFactory();
+        delegate = new Generation(replacement);
+        CurrentEntityManagerFactories.index(this);
+        retire(old);
+    }
+
+    Set<Class<?>> getIndexedEntities() {
+        return indexedEntities;
+    }
+
+    void setIndexedEntities(final Set<Class<?>> indexedEntities) {
+        this.indexedEntities = indexedEntities;
+    }
+
+    private EntityManagerFactory createFactory() {
         if (persistenceUnitInfo != null) {
-            delegate = hibernatePersistence.createContainerEntityManagerFactory(persistenceUnitInfo, properties);
+            return hibernatePersistence.createContainerEntityManagerFactory(persistenceUnitInfo, properties);
         } else if (persistenceUnitName != null) {
-            delegate = hibernatePersistence.createEntityManagerFactory(persistenceUnitName, properties);
+            return hibernatePersistence.createEntityManagerFactory(persistenceUnitName, properties);
         } else {
-            delegate = hibernatePersistence.createEntityManagerFactory(properties);
+            return hibernatePersistence.createEntityManagerFactory(properties);
+        }
+    }
+
+    private boolean isCreateDrop() {
+        Object value = properties == null ? null : properties.get(HBM2DDL_AUTO);
+        if (value == null && persistenceUnitInfo != null && persistenceUnitInfo.getProperties() != null) {
+            value = persistenceUnitInfo.getProperties().get(HBM2DDL_AUTO);
         }
+        return "create-drop".equals(value);
+    }
+
+    /**
+     * Closes a factory that has been replaced once all the entity managers it created have been closed
+     */
+    private static void retire(final Generation old) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long end = System.currentTimeMillis() + MAX_RETIRE_WAIT;
+                try {
+                    while (old.hasOpenEntityManagers() && System.currentTimeMillis() < end) {
+                        Thread.sleep(RETIRE_POLL_INTERVAL);
+                    }
+                    if (old.hasOpenEntityManagers()) {
+                        log.info("Closing replaced entity manager factory with entity managers still open");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    log.error("Could not check for open entity managers, closing replaced entity manager factory", e);
+                } finally {
+                    try {
+                        old.factory.close();
+                    } catch (RuntimeException e) {
+                        log.error("Could not close replaced entity manager factory", e);
+                    }
+                }
+            }
+        }, "Fakereplace EntityManagerFactory Closer");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @Override
     public EntityManager createEntityManager() {
-        return delegate.createEntityManager();
+        final Generation current = delegate;
+        return current.track(current.factory.createEntityManager());
     }
 
     @Override
     public EntityManager createEntityManager(final Map map) {
-        return delegate.createEntityManager(map);
+        final Generation current = delegate;
+        return current.track(current.factory.createEntityManager(map));
     }
 
     @Override
     public CriteriaBuilder getCriteriaBuilder() {
-        return delegate.getCriteriaBuilder();
+        return delegate.factory.getCriteriaBuilder();
     }
 
     @Override
     public Metamodel getMetamodel() {
-        return delegate.getMetamodel();
+        return delegate.factory.getMetamodel();
     }
 
     @Override
     public boolean isOpen() {
-        return delegate.isOpen();
+        return delegate.factory.isOpen();
     }
 
     @Override
     public void close() {
-        delegate.close();
+        delegate.factory.close();
     }
 
     @Override
     public Map<String, Object> getProperties() {
-        return delegate.getProperties();
+        return delegate.factory.getProperties();
     }
 
     @Override
     public Cache getCache() {
-        return delegate.getCache();
+        return delegate.factory.getCache();
     }
 
     @Override
     public PersistenceUnitUtil getPersistenceUnitUtil() {
-        return delegate.getPersistenceUnitUtil();
+        return delegate.factory.getPersistenceUnitUtil();
     }
 
     @Override
     public SessionFactory getSessionFactory() {
-        return ((HibernateEntityManagerFactory)delegate).getSessionFactory();
+        return ((HibernateEntityManagerFactory) delegate.factory).getSessionFactory();
     }
 
     public boolean isContainerManaged() {
@@ -133,7 +222,7 @@ public class FakereplaceEntityManagerFactoryProxy implements EntityManagerFactor
     public boolean containsEntity(final Set<Class<?>> classes) {
         for (Class<?> clazz : classes) {
             try {
-                delegate.getMetamodel().entity(clazz);
+                delegate.factory.getMetamodel().entity(clazz);
                 return true;
             } catch (IllegalArgumentException e) {
 
@@ -141,4 +230,34 @@ public class FakereplaceEntityManagerFactoryProxy implements EntityManagerFactor
         }
         return false;
     }
+
+    /**
+     * A factory, and the entity managers that have been created from it
+     */
+    private static final class Generation {
+        private final EntityManagerFactory factory;
+        /**
+         * weak and concurrent, so creating an entity manager does not contend on a single lock and the retire
+         * thread can iterate while entity managers are still being created
+         */
+        private final Set<EntityManager> entityManagers = Collections.newSetFromMap(new MapMaker().weakKeys().<EntityManager, Boolean>makeMap());
+
+        private Generation(final EntityManagerFactory factory) {
+            this.factory = factory;
+        }
+
+        EntityManager track(final EntityManager entityManager) {
+            entityManagers.add(entityManager);
+            return entityManager;
+        }
+
+        boolean hasOpenEntityManagers() {
+            for (EntityManager entityManager : entityManagers) {
+                if (entityManager.isOpen()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -26,7 +26,8 @@ import java.util.Set;
 
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.api.environment.CurrentEnvironment;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.hibernate4.HibernateEnvironment;
@@ -34,7 +35,12 @@ import org.fakereplace.hibernate4.HibernateEnvironment;
 /**
  * @author Stuart Douglas
  */
-public class Hibernate4ClassChangeAware implements ClassChangeAware {
+public class Hibernate4ClassChangeAware implements PhasedClassChangeAware {
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.DEPLOYMENT;
+    }
+
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
 
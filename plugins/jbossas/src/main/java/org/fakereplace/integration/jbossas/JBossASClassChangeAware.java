@@ -26,7 +26,8 @@ import java.util.Set;
 
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.data.InstanceTracker;
 import org.fakereplace.logging.Logger;
@@ -34,10 +35,15 @@ import org.fakereplace.logging.Logger;
 /**
  * @author Stuart Douglas
  */
-public class JBossASClassChangeAware implements ClassChangeAware {
+public class JBossASClassChangeAware implements PhasedClassChangeAware {
 
     private static final Logger log = Logger.getLogger(JBossASClassChangeAware.class);
 
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.CACHES;
+    }
+
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
 
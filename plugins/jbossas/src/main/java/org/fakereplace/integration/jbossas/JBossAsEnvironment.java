@@ -19,19 +19,30 @@
  */
 package org.fakereplace.integration.jbossas;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.fakereplace.api.environment.ChangedClasses;
 import org.fakereplace.api.environment.Environment;
+import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.hibernate4.HibernateEnvironment;
 import org.fakereplace.integration.jbossas.hibernate4.JBossASHibernateEnvironment;
 import org.fakereplace.logging.Logger;
@@ -55,11 +66,23 @@ public class JBossAsEnvironment implements Environment {
 
     private static final Map<Class<?>, Object> SERVICES;
 
+    /**
+     * The number of entries that are compared by a single scan task
+     */
+    private static final int SCAN_BATCH_SIZE = 512;
+
     /**
      * When classes are replaced we need to update their timestamps, otherwise they will be replaced on every subsequent
-     * invocation.
+     * invocation. These are kept by class name so unchanged classes can be compared without being loaded.
+     */
+    private final Map<ClassLoader, Map<String, Long>> replacedClassTimestamps = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * whether each module loader belongs to a deployment, which is all that decides if its classes are replaceable
      */
-    private final Map<Class<?>, Long> replacedClassTimestamps = Collections.synchronizedMap(new WeakHashMap<Class<?>, Long>());
+    private final Map<ClassLoader, Boolean> deploymentLoaders = new MapMaker().weakKeys().makeMap();
+
+    private volatile ExecutorService scanExecutor;
 
     static {
         final Map<Class<?>, Object> services = new HashMap<Class<?>, Object>();
@@ -69,12 +92,15 @@ public class JBossAsEnvironment implements Environment {
 
     @Override
     public boolean isClassReplaceable(final String className, final ClassLoader loader) {
-        if (loader instanceof ModuleClassLoader) {
-            if (((ModuleClassLoader) loader).getModule().getIdentifier().toString().startsWith("deployment.")) {
-                return true;
-            }
+        if (!(loader instanceof ModuleClassLoader)) {
+            return false;
         }
-        return false;
+        Boolean result = deploymentLoaders.get(loader);
+        if (result == null) {
+            result = ((ModuleClassLoader) loader).getModule().getIdentifier().toString().startsWith("deployment.");
+            deploymentLoaders.put(loader, result);
+        }
+        return result;
     }
 
     public void recordTimestamp(String className, ClassLoader loader) {
@@ -96,45 +122,51 @@ public class JBossAsEnvironment implements Environment {
             return ChangedClasses.EMPTY;
         }
 
-        final Set<Class<?>> ret = new HashSet<Class<?>>();
-        final Set<String> newClasses = new HashSet<String>();
-        for (Map.Entry<String, Long> entry : updatedClasses.entrySet()) {
-            StringBuilder traceString = new StringBuilder();
-            traceString.append("Comparing class ");
-            traceString.append(entry.getKey());
-            traceString.append(" TS: ");
-            traceString.append(entry.getValue());
-
-            final String resourceName = entry.getKey().replace(".", "/") + ".class";
-            final URL resource = loader.getResource(resourceName);
-            if (resource == null) {
-                //new class
-                newClasses.add(entry.getKey());
-                traceString.append(" not found on server, adding as new class");
-            } else {
+        final Map<String, Long> replacedTimestamps = replacedTimestamps(loader);
+        final List<ScanResult> results = scan(updatedClasses, new EntryCheck() {
+            @Override
+            public ScanResult check(final String className, final Long timestamp) {
+                final String resourceName = className.replace(".", "/") + ".class";
+                final URL resource = loader.getResource(resourceName);
+                if (resource == null) {
+                    //new class
+                    if (log.isTraceEnabled()) {
+                        log.trace("Comparing class " + className + " TS: " + timestamp + " not found on server, adding as new class");
+                    }
+                    return new ScanResult(className, true);
+                }
                 try {
-                    final URLConnection urlConnection = resource.openConnection();
-                    Long timeStamp = urlConnection.getLastModified();
-                    final Class<?> clazz = loader.loadClass(entry.getKey());
-                    Long replacedTs = replacedClassTimestamps.get(clazz);
-                    if (replacedTs != null) {
-                        timeStamp = replacedTs;
+                    Long replacedTs = replacedTimestamps.get(className);
+                    if (replacedTs == null) {
+                        final URLConnection urlConnection = resource.openConnection();
+                        replacedTs = urlConnection.getLastModified();
                     }
-                    if (timeStamp < entry.getValue()) {
-                        traceString.append(" replacing");
-                        ret.add(clazz);
-                        replacedClassTimestamps.put(clazz, entry.getValue());
-                    } else {
-                        traceString.append(" not replacing");
+                    final boolean replace = replacedTs < timestamp;
+                    if (log.isTraceEnabled()) {
+                        log.trace("Comparing class " + className + " TS: " + timestamp + (replace ? " replacing" : " not replacing"));
                     }
+                    return replace ? new ScanResult(className, false) : null;
                 } catch (IOException e) {
                     log.error("Could not open connection for " + resourceName, e);
-                } catch (ClassNotFoundException e) {
-                    log.debug("Could not load class " + entry.getKey(), e);
+                    return null;
                 }
+            }
+        });
 
-                log.trace(traceString.toString());
-
+        //only the classes that have actually changed are loaded
+        final Set<Class<?>> ret = new HashSet<Class<?>>();
+        final Set<String> newClasses = new HashSet<String>();
+        for (final ScanResult result : results) {
+            if (result.newEntry) {
+                newClasses.add(result.name);
+            } else {
+                try {
+                    final Class<?> clazz = loader.loadClass(result.name);
+                    ret.add(clazz);
+                    replacedTimestamps.put(result.name, updatedClasses.get(result.name));
+                } catch (ClassNotFoundException e) {
+                    log.debug("Could not load class " + result.name, e);
+                }
             }
         }
         return new ChangedClasses(ret, newClasses, loader);
@@ -155,19 +187,102 @@ public class JBossAsEnvironment implements Environment {
         final DeploymentUnit deploymentUnit = deploymentService.getValue();
         final ResourceRoot root = deploymentUnit.getAttachment(Attachments.DEPLOYMENT_ROOT);
 
-        final Set<String> resources = new HashSet<String>();
-        for (final Map.Entry<String, Long> entry : updatedResources.entrySet()) {
-            final VirtualFile file = root.getRoot().getChild(entry.getKey());
-            if (file.exists()) {
-                long last = file.getLastModified();
-                if (entry.getValue() > last) {
-                    resources.add(entry.getKey());
+        final VirtualFile rootFile = root.getRoot();
+        final List<ScanResult> results = scan(updatedResources, new EntryCheck() {
+            @Override
+            public ScanResult check(final String name, final Long timestamp) {
+                final VirtualFile file = rootFile.getChild(name);
+                if (file.exists()) {
+                    long last = file.getLastModified();
+                    if (timestamp > last) {
+                        return new ScanResult(name, false);
+                    }
                 }
+                return null;
             }
+        });
+        final Set<String> resources = new HashSet<String>();
+        for (final ScanResult result : results) {
+            resources.add(result.name);
         }
         return resources;
     }
 
+    private Map<String, Long> replacedTimestamps(final ClassLoader loader) {
+        synchronized (replacedClassTimestamps) {
+            Map<String, Long> timestamps = replacedClassTimestamps.get(loader);
+            if (timestamps == null) {
+                timestamps = new ConcurrentHashMap<String, Long>();
+                replacedClassTimestamps.put(loader, timestamps);
+            }
+            return timestamps;
+        }
+    }
+
+    /**
+     * Runs the check against every entry, splitting large sets of entries into batches that are checked in
+     * parallel.
+     *
+     * @return the non null results of the check
+     */
+    private List<ScanResult> scan(final Map<String, Long> entries, final EntryCheck check) {
+        final List<Map.Entry<String, Long>> all = new ArrayList<Map.Entry<String, Long>>(entries.entrySet());
+        if (all.size() <= SCAN_BATCH_SIZE) {
+            return checkBatch(all, check);
+        }
+        final List<Future<List<ScanResult>>> futures = new ArrayList<Future<List<ScanResult>>>();
+        for (int i = 0; i < all.size(); i += SCAN_BATCH_SIZE) {
+            final List<Map.Entry<String, Long>> batch = all.subList(i, Math.min(i + SCAN_BATCH_SIZE, all.size()));
+            futures.add(scanExecutor().submit(new Callable<List<ScanResult>>() {
+                @Override
+                public List<ScanResult> call() {
+                    return checkBatch(batch, check);
+                }
+            }));
+        }
+        final List<ScanResult> results = new ArrayList<ScanResult>();
+        try {
+            for (final Future<List<ScanResult>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    private static List<ScanResult> checkBatch(final List<Map.Entry<String, Long>> batch, final EntryCheck check) {
+        final List<ScanResult> results = new ArrayList<ScanResult>();
+        for (final Map.Entry<String, Long> entry : batch) {
+            final ScanResult result = check.check(entry.getKey(), entry.getValue());
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private ExecutorService scanExecutor() {
+        if (scanExecutor == null) {
+            synchronized (this) {
+                if (scanExecutor == null) {
+                    scanExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "Fakereplace Deployment Scanner Thread");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return scanExecutor;
+    }
+
     private ServiceController<DeploymentUnit> deploymentService(final String deploymentName) {
         ServiceController<DeploymentUnit> deploymentService = (ServiceController<DeploymentUnit>) CurrentServiceContainer.getServiceContainer().getService(Services.deploymentUnitName(deploymentName));
         if (deploymentService == null) {
@@ -186,7 +301,7 @@ public class JBossAsEnvironment implements Environment {
     }
 
     @Override
-    public void updateResource(final String archiveName, final Map<String, byte[]> replacedResources) {
+    public void updateResource(final String archiveName, final Map<String, File> replacedResources) {
         ServiceController<DeploymentUnit> deploymentService = deploymentService(archiveName);
         if (deploymentService == null) {
             return;
@@ -199,15 +314,24 @@ public class JBossAsEnvironment implements Environment {
         final DeploymentUnit deploymentUnit = deploymentService.getValue();
         final ResourceRoot root = deploymentUnit.getAttachment(Attachments.DEPLOYMENT_ROOT);
 
-        for (final Map.Entry<String, byte[]> entry : replacedResources.entrySet()) {
+        final byte[] buffer = new byte[8192];
+        for (final Map.Entry<String, File> entry : replacedResources.entrySet()) {
             final VirtualFile file = root.getRoot().getChild(entry.getKey());
             try {
-                final FileOutputStream stream = new FileOutputStream(file.getPhysicalFile(), false);
+                final FileInputStream in = new FileInputStream(entry.getValue());
                 try {
-                    stream.write(entry.getValue());
-                    stream.flush();
+                    final FileOutputStream stream = new FileOutputStream(file.getPhysicalFile(), false);
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            stream.write(buffer, 0, read);
+                        }
+                        stream.flush();
+                    } finally {
+                        stream.close();
+                    }
                 } finally {
-                    stream.close();
+                    in.close();
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -224,4 +348,22 @@ public class JBossAsEnvironment implements Environment {
         return deploymentArchive.getValue().getAttachment(Attachments.MODULE_IDENTIFIER);
     }
 
+    private interface EntryCheck {
+
+        /**
+         * @return the result for the entry, or null if it has not changed
+         */
+        ScanResult check(String name, Long timestamp);
+    }
+
+    private static final class ScanResult {
+        private final String name;
+        private final boolean newEntry;
+
+        private ScanResult(final String name, final boolean newEntry) {
+            this.name = name;
+            this.newEntry = newEntry;
+        }
+    }
+
 }
@@ -35,7 +35,8 @@ import javax.persistence.Entity;
 import org.fakereplace.api.AttachmentKeys;
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.data.InstanceTracker;
 import org.jboss.as.jpa.service.PersistenceUnitServiceImpl;
@@ -50,7 +51,12 @@ import org.jboss.modules.ModuleLoadException;
 /**
  * @author Stuart Douglas
  */
-public class JBossASHibernate4ClassChangeAware implements ClassChangeAware {
+public class JBossASHibernate4ClassChangeAware implements PhasedClassChangeAware {
+
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.DEPLOYMENT;
+    }
 
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, Attachments attachments) {
@@ -20,24 +20,43 @@
 
 package org.fakereplace.integration.jsf;
 
-import java.beans.Introspector;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
+import org.fakereplace.api.AttachmentKeys;
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
+import org.fakereplace.com.google.common.collect.MapMaker;
 import org.fakereplace.data.InstanceTracker;
 import org.fakereplace.logging.Logger;
 
-public class ClassRedefinitionPlugin implements ClassChangeAware {
+public class ClassRedefinitionPlugin implements PhasedClassChangeAware {
 
     private static final Logger log = Logger.getLogger(ClassRedefinitionPlugin.class);
 
+    /**
+     * The field that holds the cache, for each resolver implementation
+     */
+    private static final Map<Class<?>, Field> CACHE_FIELDS = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * The maps that make up the cache, for each cache implementation that is not a map itself. ConcurrentCache
+     * keeps its entries in an eden and a longterm map.
+     */
+    private static final Map<Class<?>, List<Field>> CACHE_MAPS = new MapMaker().weakKeys().makeMap();
+
     Field getField(Class<?> clazz, String name) throws NoSuchFieldException {
         if (clazz == Object.class)
             throw new NoSuchFieldException();
@@ -50,6 +69,11 @@ public class ClassRedefinitionPlugin implements ClassChangeAware {
     }
 
 
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.CACHES;
+    }
+
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
 
@@ -57,15 +81,133 @@ public class ClassRedefinitionPlugin implements ClassChangeAware {
 
     @Override
     public void afterChange(List<ChangedClass> changed, List<ClassIdentifier> added, final Attachments attachments) {
-        try {
-            Introspector.flushCaches();
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (changed.isEmpty()) {
+            return;
+        }
+        final Set<Class<?>> classes = affectedClasses(changed, attachments);
+        final Set<String> names = new HashSet<String>();
+        for (Class<?> c : classes) {
+            names.add(c.getName());
         }
         Set<?> data = InstanceTracker.get("javax.el.BeanELResolver");
         for (Object i : data) {
-            clearBeanElResolver(i);
+            evictFromBeanElResolver(i, classes, names);
+        }
+    }
+
+    /**
+     * The changed classes, and their loaded subclasses, as their bean properties include the properties of the
+     * changed class. The subclasses are found once by the agent, which has also flushed them from the
+     * Introspector.
+     */
+    private Set<Class<?>> affectedClasses(final List<ChangedClass> changed, final Attachments attachments) {
+        final Set<Class<?>> hierarchy = attachments.get(AttachmentKeys.REPLACED_CLASS_HIERARCHY);
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        if (hierarchy != null) {
+            classes.addAll(hierarchy);
+        }
+        for (ChangedClass c : changed) {
+            classes.add(c.getChangedClass());
+        }
+        return classes;
+    }
+
+    /**
+     * Removes the cache entries for the given classes. Depending on the EL implementation the cache is keyed by
+     * class or by class name. If the cache cannot be walked the whole cache is cleared. Entries with any other
+     * kind of key are left alone.
+     */
+    public void evictFromBeanElResolver(final Object r, final Set<Class<?>> classes, final Set<String> names) {
+        try {
+            final Field cacheField = cacheField(r.getClass());
+            final Object cache = cacheField.get(r);
+            if (cache == null) {
+                return;
+            }
+            if (cache instanceof Map) {
+                evict((Map<?, ?>) cache, classes, names);
+                return;
+            }
+            final List<Field> maps = cacheMaps(cache.getClass());
+            if (maps.isEmpty()) {
+                clearBeanElResolver(r);
+                return;
+            }
+            for (Field map : maps) {
+                final Map<?, ?> entries = (Map<?, ?>) map.get(cache);
+                if (entries != null) {
+                    evict(entries, classes, names);
+                }
+            }
+        } catch (Exception e) {
+            clearBeanElResolver(r);
+        }
+    }
+
+    private void evict(final Map<?, ?> cache, final Set<Class<?>> classes, final Set<String> names) {
+        if (cache instanceof ConcurrentMap) {
+            evictEntries(cache, classes, names);
+        } else {
+            synchronized (cache) {
+                evictEntries(cache, classes, names);
+            }
+        }
+    }
+
+    private void evictEntries(final Map<?, ?> cache, final Set<Class<?>> classes, final Set<String> names) {
+        Set<Class<?>> unknownKeys = null;
+        final Iterator<?> it = cache.keySet().iterator();
+        while (it.hasNext()) {
+            final Object key = it.next();
+            if (key instanceof Class) {
+                if (classes.contains(key)) {
+                    it.remove();
+                }
+            } else if (key instanceof String) {
+                if (names.contains(key)) {
+                    it.remove();
+                }
+            } else if (key != null) {
+                //we don't know what this is keyed by
+                if (unknownKeys == null) {
+                    unknownKeys = new HashSet<Class<?>>();
+                }
+                unknownKeys.add(key.getClass());
+            }
+        }
+        if (unknownKeys != null) {
+            log.info("Could not evict EL cache entries keyed by " + unknownKeys + ", these entries may be stale");
+        }
+    }
+
+    private Field cacheField(final Class<?> resolverClass) throws NoSuchFieldException {
+        Field field = CACHE_FIELDS.get(resolverClass);
+        if (field == null) {
+            try {
+                field = getField(resolverClass, "cache");
+            } catch (NoSuchFieldException e) {
+                field = getField(resolverClass, "properties");
+            }
+            field.setAccessible(true);
+            CACHE_FIELDS.put(resolverClass, field);
+        }
+        return field;
+    }
+
+    private List<Field> cacheMaps(final Class<?> cacheClass) {
+        List<Field> maps = CACHE_MAPS.get(cacheClass);
+        if (maps == null) {
+            maps = new ArrayList<Field>();
+            for (Field field : cacheClass.getDeclaredFields()) {
+                if (Map.class.isAssignableFrom(field.getType())) {
+                    field.setAccessible(true);
+                    maps.add(field);
+                }
+            }
+            maps = Collections.unmodifiableList(maps);
+            CACHE_MAPS.put(cacheClass, maps);
         }
+        return maps;
     }
 
     public void clearBeanElResolver(Object r) {
@@ -28,11 +28,12 @@ import java.util.Set;
 
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.data.InstanceTracker;
 
-public class ClassRedefinitionPlugin implements ClassChangeAware {
+public class ClassRedefinitionPlugin implements PhasedClassChangeAware {
 
     private static Method remove;
 
@@ -56,6 +57,11 @@ public class ClassRedefinitionPlugin implements ClassChangeAware {
     }
 
 
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.CACHES;
+    }
+
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
 
@@ -20,8 +20,12 @@
 
 package org.fakereplace.integration.resteasy;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.FilterConfig;
@@ -31,15 +35,23 @@ import javax.ws.rs.Path;
 
 import org.fakereplace.api.Attachments;
 import org.fakereplace.api.ChangedClass;
-import org.fakereplace.api.ClassChangeAware;
+import org.fakereplace.api.ClassChangePhase;
+import org.fakereplace.api.PhasedClassChangeAware;
 import org.fakereplace.classloading.ClassIdentifier;
 import org.fakereplace.data.InstanceTracker;
 import org.fakereplace.logging.Logger;
 
-public class ResteasyClassChangeAware implements ClassChangeAware {
+public class ResteasyClassChangeAware implements PhasedClassChangeAware {
+
+    private static final String POJO_RESOURCE_FACTORY = "org.jboss.resteasy.plugins.server.resourcefactory.POJOResourceFactory";
 
     final Logger logger = Logger.getLogger(ResteasyClassChangeAware.class);
 
+    @Override
+    public ClassChangePhase getPhase() {
+        return ClassChangePhase.DEPLOYMENT;
+    }
+
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
 
@@ -47,20 +59,24 @@ public class ResteasyClassChangeAware implements ClassChangeAware {
 
     @Override
     public void afterChange(final List<ChangedClass> changed, final List<ClassIdentifier> added, final Attachments attachments) {
-        boolean requiresRestart = false;
+        final List<Class<?>> resources = new ArrayList<Class<?>>();
         ClassLoader classLoader = null;
         for (final ChangedClass c : changed) {
             if (!c.getChangedAnnotationsByType(Path.class).isEmpty() ||
                     c.getChangedClass().isAnnotationPresent(Path.class)) {
-                requiresRestart = true;
-                classLoader = c.getChangedClass().getClassLoader();
-                break;
+                resources.add(c.getChangedClass());
+                if (classLoader == null) {
+                    classLoader = c.getChangedClass().getClassLoader();
+                }
             }
         }
 
-        if (requiresRestart) {
+        if (!resources.isEmpty()) {
 
             for (final Object servlet : InstanceTracker.get(ResteasyExtension.SERVLET_DISPATCHER)) {
+                if (reregister(servlet, resources, classLoader)) {
+                    continue;
+                }
                 try {
                     final ServletConfig config = (ServletConfig) servlet.getClass().getField(ResteasyTransformer.FIELD_NAME).get(servlet);
                     final Set<String> doNoyClear = (Set<String>) servlet.getClass().getField(ResteasyTransformer.PARAMETER_FIELD_NAME).get(servlet);
@@ -78,6 +94,9 @@ public class ResteasyClassChangeAware implements ClassChangeAware {
                 }
             }
             for (final Object filter : InstanceTracker.get(ResteasyExtension.FILTER_DISPATCHER)) {
+                if (reregister(filter, resources, classLoader)) {
+                    continue;
+                }
                 try {
                     final FilterConfig config = (FilterConfig) filter.getClass().getField(ResteasyTransformer.FIELD_NAME).get(filter);
                     final Set<String> doNoyClear = (Set<String>) filter.getClass().getField(ResteasyTransformer.PARAMETER_FIELD_NAME).get(filter);
@@ -99,6 +118,135 @@ public class ResteasyClassChangeAware implements ClassChangeAware {
 
     }
 
+    /**
+     * Removes the changed resources from the dispatcher's registry and adds them back, so only these resources are
+     * rescanned.
+     * <p/>
+     * This is only possible if every changed resource was registered as a plain per request resource. Resources
+     * with another lifecycle, or that were not registered at all, need the dispatcher to be restarted so the
+     * application can register them as it normally would. This includes sub-resources, as the resource locators
+     * cache the registry they build for them.
+     * <p/>
+     * The old bindings are found through the invokers in the registry rather than through
+     * <code>removeRegistrations</code>, as that works out the paths from the new version of the class, so it would
+     * miss the bindings of methods that have been removed or whose <code>@Path</code> has changed.
+     *
+     * @return <code>true</code> if the resources were re-registered, <code>false</code> if the dispatcher needs to be restarted
+     */
+    private boolean reregister(final Object dispatcherHolder, final List<Class<?>> resources, final ClassLoader classLoader) {
+        try {
+            final Object dispatcher = dispatcherHolder.getClass().getMethod("getDispatcher").invoke(dispatcherHolder);
+            if (dispatcher == null) {
+                return false;
+            }
+            final Object registry = dispatcher.getClass().getMethod("getRegistry").invoke(dispatcher);
+            final Map<String, List<?>> bounded = (Map<String, List<?>>) registry.getClass().getMethod("getBounded").invoke(registry);
+            for (final Class<?> resource : resources) {
+                final Boolean perRequest = isPerRequestResource(bounded, resource);
+                if (perRequest == null) {
+                    if (resource.isAnnotationPresent(Path.class)) {
+                        //a new resource, we don't know if the application would have registered it
+                        return false;
+                    }
+                    if (hasPathMethods(resource)) {
+                        //a sub-resource, only a restart clears the locators cached registries
+                        return false;
+                    }
+                } else if (!perRequest) {
+                    return false;
+                }
+            }
+            final ClassLoader old = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(classLoader);
+            try {
+                for (final Class<?> resource : resources) {
+                    removeInvokers(registry, bounded, resource);
+                    if (resource.isAnnotationPresent(Path.class)) {
+                        registry.getClass().getMethod("addPerRequestResource", Class.class).invoke(registry, resource);
+                    }
+                }
+            } finally {
+                Thread.currentThread().setContextClassLoader(old);
+            }
+            return true;
+        } catch (Exception e) {
+            logger.debug("Could not re-register RESTeasy resources, restarting dispatcher", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return <code>null</code> if the resource is not registered, otherwise if all of its invokers use a per request resource factory
+     */
+    private Boolean isPerRequestResource(final Map<String, List<?>> bounded, final Class<?> resource) throws Exception {
+        Boolean result = null;
+        for (final List<?> invokers : bounded.values()) {
+            for (final Object invoker : invokers) {
+                final Object factory = resourceFactory(invoker);
+                if (factory.getClass().getMethod("getScannableClass").invoke(factory) == resource) {
+                    if (!factory.getClass().getName().equals(POJO_RESOURCE_FACTORY)) {
+                        return false;
+                    }
+                    result = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes every invoker whose resource factory scans the given class, using the path it was bound to
+     */
+    private void removeInvokers(final Object registry, final Map<String, List<?>> bounded, final Class<?> resource) throws Exception {
+        final Object rootSegment = field(registry, "rootSegment");
+        final Method removePath = rootSegment.getClass().getMethod("removePath", String.class, Method.class);
+        for (final Map.Entry<String, List<?>> entry : new ArrayList<Map.Entry<String, List<?>>>(bounded.entrySet())) {
+            final List<?> invokers = entry.getValue();
+            for (final Object invoker : new ArrayList<Object>(invokers)) {
+                final Object factory = resourceFactory(invoker);
+                if (factory.getClass().getMethod("getScannableClass").invoke(factory) == resource) {
+                    final Method method = (Method) invoker.getClass().getMethod("getMethod").invoke(invoker);
+                    removePath.invoke(rootSegment, entry.getKey(), method);
+                    invokers.remove(invoker);
+                }
+            }
+            if (invokers.isEmpty()) {
+                bounded.remove(entry.getKey());
+            }
+        }
+    }
+
+    private boolean hasPathMethods(final Class<?> resource) {
+        Class<?> c = resource;
+        while (c != null && c != Object.class) {
+            for (final Method method : c.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Path.class)) {
+                    return true;
+                }
+            }
+            c = c.getSuperclass();
+        }
+        return false;
+    }
+
+    private Object resourceFactory(final Object invoker) throws Exception {
+        return field(invoker, "resource");
+    }
+
+    private Object field(final Object instance, final String name) throws Exception {
+        Class<?> c = instance.getClass();
+        while (c != Object.class) {
+            try {
+                final Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(instance);
+            } catch (NoSuchFieldException e) {
+                c = c.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
     /**
      * Clear any resteasy stuff from the context
      *
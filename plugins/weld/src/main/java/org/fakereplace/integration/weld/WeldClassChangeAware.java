@@ -20,8 +20,10 @@
 
 package org.fakereplace.integration.weld;
 
-import java.lang.reflect.Field;
-import java.util.HashSet;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,21 +40,16 @@ import org.jboss.weld.bean.proxy.ProxyFactory;
 
 public class WeldClassChangeAware implements ClassChangeAware {
 
-    private static final Field beanField;
-
     /**
      * proxy factories, key by by a weak reference to their bean object to prevent a memory leak.
      */
     private static final Map<Object, ProxyFactory<?>> proxyFactories = new MapMaker().weakKeys().makeMap();
 
-    static {
-        try {
-            beanField = ProxyFactory.class.getDeclaredField("bean");
-            beanField.setAccessible(true);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    /**
+     * the beans with proxy factories, indexed by every raw type in the bean's type closure, so only the factories
+     * for beans that have a changed type are looked at.
+     */
+    private static final Map<Class<?>, Set<Bean<?>>> beansByType = new MapMaker().weakKeys().makeMap();
 
     @Override
     public void beforeChange(final List<Class<?>> changed, final List<ClassIdentifier> added, final Attachments attachments) {
@@ -61,23 +58,25 @@ public class WeldClassChangeAware implements ClassChangeAware {
 
     @Override
     public void afterChange(List<ChangedClass> changed, List<ClassIdentifier> added, final Attachments attachments) {
-        ClassLoader oldCl = null;
+        final Set<Bean<?>> beans = new LinkedHashSet<Bean<?>>();
+        for (final ChangedClass clazz : changed) {
+            final Set<Bean<?>> forType = beansByType.get(clazz.getChangedClass());
+            if (forType != null) {
+                beans.addAll(forType);
+            }
+        }
+        if (beans.isEmpty()) {
+            return;
+        }
+        final ClassLoader oldCl = Thread.currentThread().getContextClassLoader();
         WeldProxyClassLoadingDelegate.beginProxyRegeneration();
         try {
-            final Set<ChangedClass> changedClasses = new HashSet<ChangedClass>(changed);
-
             //Hack to re-generate the weld client proxies
-            for (final ProxyFactory instance : proxyFactories.values()) {
-                try {
-                    final Bean<?> bean = (Bean<?>) beanField.get(instance);
-                    for(final ChangedClass clazz: changedClasses) {
-                        if(bean.getTypes().contains(clazz.getChangedClass())) {
-                            Thread.currentThread().setContextClassLoader(bean.getBeanClass().getClassLoader());
-                            instance.getProxyClass();
-                        }
-                    }
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
+            for (final Bean<?> bean : beans) {
+                final ProxyFactory<?> instance = proxyFactories.get(bean);
+                if (instance != null) {
+                    Thread.currentThread().setContextClassLoader(bean.getBeanClass().getClassLoader());
+                    instance.getProxyClass();
                 }
             }
         } finally {
@@ -87,6 +86,32 @@ public class WeldClassChangeAware implements ClassChangeAware {
     }
 
     public static void addProxyFactory(final ProxyFactory<?> factory, final Object bean) {
+        if (bean == null) {
+            return;
+        }
         proxyFactories.put(bean, factory);
+        for (final Type type : ((Bean<?>) bean).getTypes()) {
+            final Class<?> rawType = rawType(type);
+            if (rawType == null) {
+                continue;
+            }
+            synchronized (beansByType) {
+                Set<Bean<?>> beans = beansByType.get(rawType);
+                if (beans == null) {
+                    beans = Collections.newSetFromMap(new MapMaker().weakKeys().<Bean<?>, Boolean>makeMap());
+                    beansByType.put(rawType, beans);
+                }
+                beans.add((Bean<?>) bean);
+            }
+        }
+    }
+
+    private static Class<?> rawType(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        return null;
     }
 }
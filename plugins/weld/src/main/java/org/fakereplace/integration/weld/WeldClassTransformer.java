@@ -65,9 +65,9 @@ public class WeldClassTransformer implements FakereplaceTransformer {
                 } else if (method.getName().equals("<init>")) {
 
                     Integer beanArgument = null;
-                    int count = 0;
+                    int count = 1;
                     for (final String paramType : DescriptorUtils.descriptorStringToParameterArray(method.getDescriptor())) {
-                        if (paramType.equals("javax/enterprise/inject/spi/Bean")) {
+                        if (paramType.equals("Ljavax/enterprise/inject/spi/Bean")) {
                             beanArgument = count;
                             break;
                         } else if (paramType.equals("D") || paramType.equals("J")) {
@@ -86,7 +86,7 @@ public class WeldClassTransformer implements FakereplaceTransformer {
                     Bytecode code = new Bytecode(file.getConstPool());
                     code.addAload(0);
                     code.addAload(beanArgument);
-                    code.addInvokestatic(WeldClassChangeAware.class.getName(), "addProxyFactory", "(Lorg/jboss/weld/bean/proxy/ProxyFactory;)V");
+                    code.addInvokestatic(WeldClassChangeAware.class.getName(), "addProxyFactory", "(Lorg/jboss/weld/bean/proxy/ProxyFactory;Ljava/lang/Object;)V");
                     CodeIterator it = method.getCodeAttribute().iterator();
                     it.skipConstructor();
                     it.insert(code.get());